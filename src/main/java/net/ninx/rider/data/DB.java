@@ -2,13 +2,25 @@ package net.ninx.rider.data;
 
 import java.lang.reflect.Field;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
@@ -17,15 +29,22 @@ import com.alibaba.fastjson.serializer.SerializerFeature;
 
 import cn.hutool.core.convert.Convert;
 import cn.hutool.db.Entity;
-import cn.hutool.db.handler.EntityHandler;
-import cn.hutool.db.handler.EntityListHandler;
+import cn.hutool.db.StatementUtil;
+import cn.hutool.db.handler.RsHandler;
 import cn.hutool.db.sql.SqlExecutor;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.ninx.rider.data.annotations.ResultEntity;
+import net.ninx.rider.data.base.IdGenerator;
+import net.ninx.rider.data.manager.ConnectionManager;
+import net.ninx.rider.data.manager.ConnectionPool;
 import net.ninx.rider.data.manager.MapperManager;
+import net.ninx.rider.data.manager.QueryCacheManager;
 import net.ninx.rider.data.manager.ResultMapManager;
+import net.ninx.rider.data.manager.ResultMapManager.RowMapper;
 import net.ninx.rider.data.manager.TableManager;
+import net.ninx.rider.data.utils.ClassIndex;
 import net.ninx.rider.data.utils.ClassScanner;
 
 @Slf4j
@@ -45,7 +64,41 @@ public class DB {
     /**
      * 链接管理，一个线程一个链接
      */
-    private final Map<Long, Connection> connectionMap = new HashMap<>();
+    @Getter
+    private final ConnectionManager connectionManager = new ConnectionManager();
+    /**
+     * 批量写入时每批的条数
+     */
+    @Getter
+    @Setter
+    private volatile int batchSize = 500;
+
+    /**
+     * 流式查询时每次从数据库读取的行数，0 表示使用驱动的默认值。MySQL 需要设置为 Integer.MIN_VALUE 才会逐行读取
+     */
+    @Getter
+    @Setter
+    private volatile int fetchSize = 1000;
+
+    /**
+     * BaseMapper 新增记录时使用的 id 生成策略，默认为雪花算法
+     */
+    @Getter
+    private volatile IdGenerator idGenerator = IdGenerator.SNOWFLAKE;
+
+    /**
+     * in (...) 查询时每条sql最多的参数个数，需要小于数据库的参数个数限制（如 Oracle 的 in 列表最多 1000 个，旧版 SQLite 最多 999 个参数）
+     */
+    @Getter
+    @Setter
+    private volatile int inListSize = 500;
+
+    /**
+     * 并行查询使用的线程池，池化模式下首次使用时按链接池大小创建
+     */
+    @Setter
+    private volatile ExecutorService executor;
+
     /**
      * mappers 管理
      */
@@ -53,8 +106,14 @@ public class DB {
     private final List<Object> mappers = new ArrayList<>();
 
     private DB(Class<?> clazz, DataSource dataSource) throws ClassNotFoundException {
-        ClassScanner scanner = new ClassScanner();
-        this.classes = scanner.findAllClass(clazz);
+        // 优先使用 clazz 所在 jar 或者目录下编译期生成的索引，没有时扫描包下所有的类
+        Set<Class<?>> indexed = ClassIndex.read(clazz);
+        if (indexed != null) {
+            this.classes = indexed;
+        } else {
+            ClassScanner scanner = new ClassScanner();
+            this.classes = scanner.findAllClass(clazz);
+        }
         this.dataSource = dataSource;
     }
 
@@ -97,6 +156,16 @@ public class DB {
         return db;
     }
 
+    /**
+     * 设置 id 生成策略，设置前调用 IdGenerator.init
+     * 
+     * @param idGenerator
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        idGenerator.init();
+        this.idGenerator = idGenerator;
+    }
+
     public void addMapper(Object object) {
         mappers.add(object);
     }
@@ -120,28 +189,143 @@ public class DB {
     }
 
     /**
-     * 获取当前线程唯一链接
+     * 获取当前线程唯一链接。池化模式下链接会一直占用，直到调用 releaseConnection
      * 
      * @return
      * @throws SQLException
      */
     public Connection getConnection() throws SQLException {
-        long id = Thread.currentThread().getId();
-        if (connectionMap.get(id) != null && !connectionMap.get(id).isClosed()) {
-            return connectionMap.get(id);
-        } else {
-            connectionMap.entrySet().removeIf(entries -> {
-                try {
-                    return entries.getValue().isClosed();
-                } catch (Exception e) {
-                    return true;
+        return connectionManager.getConnection();
+    }
+
+    /**
+     * 开启池化模式，链接只在一次操作或者一次 session 内占用
+     * 
+     * @param pool
+     * @return
+     */
+    public DB pool(ConnectionPool pool) {
+        connectionManager.setPool(pool);
+        return this;
+    }
+
+    /**
+     * 在同一个链接上执行一组操作，池化模式下全部操作结束后才归还链接
+     * 
+     * @param <R>
+     * @param work
+     * @return
+     */
+    public <R> R session(Callable<R> work) {
+        try {
+            connectionManager.open();
+        } catch (SQLException e) {
+            throw new ExecuteException(e);
+        }
+        try {
+            return work.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExecuteException(e);
+        } finally {
+            connectionManager.close();
+        }
+    }
+
+    public void session(Runnable work) {
+        session(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * 在事务中执行一组操作，全部成功后提交一次，异常时回滚并抛出。可以嵌套，内层事务使用 savepoint
+     * 
+     * <pre>
+     * DB.use().tx(() -> {
+     *     mapper.create(a);
+     *     mapper.create(b);
+     * });
+     * </pre>
+     * 
+     * @param <R>
+     * @param work
+     * @return
+     */
+    public <R> R tx(Callable<R> work) {
+        try {
+            return connectionManager.transaction(work);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExecuteException(e);
+        }
+    }
+
+    public void tx(Runnable work) {
+        tx(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * 执行一组互相独立的查询。池化模式下，当前线程没有占用链接时在线程池中并行执行，每个任务使用各自的链接；否则在当前线程依次执行
+     * 
+     * @param <R>
+     * @param tasks
+     * @return 与 tasks 顺序一致的结果
+     */
+    public <R> List<R> parallel(List<Callable<R>> tasks) {
+        List<R> results = new ArrayList<>(tasks.size());
+        ConnectionPool pool = connectionManager.getPool();
+        try {
+            // 已经占用链接（session、事务中）时并行会多占用链接，并且看不到当前事务的数据
+            if (tasks.size() < 2 || pool == null || pool.getMaxSize() < 2 || connectionManager.isBound()) {
+                for (Callable<R> task : tasks) {
+                    results.add(task.call());
                 }
-            });
+                return results;
+            }
+            for (Future<R> future : getExecutor(pool).invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new ExecuteException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecuteException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExecuteException(e);
+        }
+    }
 
-            DataSource dataSource = DB.use().getDataSource();
-            connectionMap.put(id, dataSource.getConnection());
-            return connectionMap.get(id);
+    private ExecutorService getExecutor(ConnectionPool pool) {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger seq = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(pool.getMaxSize(), r -> {
+                        Thread t = new Thread(r, "rider-data-query-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
         }
+        return executor;
+    }
+
+    /**
+     * 关闭并解绑当前线程的链接
+     */
+    public void releaseConnection() {
+        connectionManager.releaseConnection();
     }
 
     public int execute(String sql) throws SQLException {
@@ -151,7 +335,39 @@ public class DB {
     public int execute(String sql, List<Object> paramList) throws SQLException {
         formatSqlParam(paramList);
         printSql(sql, Integer.class, "", paramList);
-        return SqlExecutor.execute(getConnection(), sql, paramList == null ? new Object[] {} : paramList.toArray());
+        int count = withStatement(sql, ps -> SqlExecutor.executeUpdate(ps, paramList == null ? new Object[] {} : paramList.toArray()));
+        QueryCacheManager.afterWrite(sql);
+        return count;
+    }
+
+    /**
+     * 批量执行同一条sql，一组参数对应一次执行，整体只做一次网络往返
+     * 
+     * @param sql
+     * @param paramsList
+     * @return
+     * @throws SQLException
+     */
+    public int[] executeBatch(String sql, List<List<Object>> paramsList) throws SQLException {
+        if (paramsList == null || paramsList.isEmpty()) {
+            return new int[0];
+        }
+        List<Object[]> batch = new ArrayList<>(paramsList.size());
+        for (List<Object> paramList : paramsList) {
+            formatSqlParam(paramList);
+            batch.add(paramList.toArray());
+        }
+        printSql(sql, int[].class, "", paramsList.get(0));
+        log.debug("@ Batch size: " + batch.size());
+        int[] counts = withStatement(sql, ps -> {
+            for (Object[] params : batch) {
+                StatementUtil.fillParams(ps, params);
+                ps.addBatch();
+            }
+            return ps.executeBatch();
+        });
+        QueryCacheManager.afterWrite(sql);
+        return counts;
     }
 
     public <E> List<E> queryList(String sql, Class<E> resultType) throws SQLException {
@@ -165,8 +381,14 @@ public class DB {
     public <E> List<E> queryList(String sql, Class<E> resultType, String resultMap, List<Object> paramList) throws SQLException {
         formatSqlParam(paramList);
         printSql(sql, resultType, resultMap, paramList);
-        List<Entity> data = SqlExecutor.query(getConnection(), sql, new EntityListHandler(true), paramList == null ? new Object[] {} : paramList.toArray());
-        return data == null ? null : data.stream().map(e -> caseTo(e, resultType, resultMap)).collect(Collectors.toList());
+        return withStatement(sql, ps -> SqlExecutor.query(ps, rs -> {
+            RowMapper<E> mapper = ResultMapManager.getRowMapper(resultType, resultMap, rs.getMetaData(), true);
+            List<E> result = new ArrayList<>();
+            while (rs.next()) {
+                result.add(mapper.map(rs));
+            }
+            return result;
+        }, paramList == null ? new Object[] {} : paramList.toArray()));
     }
 
     public <E> E query(String sql, Class<E> resultType) {
@@ -181,15 +403,167 @@ public class DB {
         formatSqlParam(paramList);
         printSql(sql, resultType, resultMap, paramList);
         try {
-            Entity e = SqlExecutor.query(getConnection(), sql, new EntityHandler(), paramList == null ? new Object[] {} : paramList.toArray());
-            return caseTo(e, resultType, resultMap);
+            return withStatement(sql, ps -> SqlExecutor.query(ps, rs -> {
+                return rs.next() ? ResultMapManager.getRowMapper(resultType, resultMap, rs.getMetaData(), false).map(rs) : null;
+            }, paramList == null ? new Object[] {} : paramList.toArray()));
         } catch (Exception e) {
             throw new ExecuteException(e);
         }
     }
 
     /**
-     * 类型转换
+     * 查询并由 handler 直接处理结果集，用于需要读取额外列等自定义处理
+     * 
+     * @param <R>
+     * @param sql
+     * @param paramList
+     * @param handler
+     * @return
+     * @throws SQLException
+     */
+    public <R> R query(String sql, List<Object> paramList, RsHandler<R> handler) throws SQLException {
+        formatSqlParam(paramList);
+        printSql(sql, Object.class, "", paramList);
+        return withStatement(sql, ps -> SqlExecutor.query(ps, handler, paramList == null ? new Object[] {} : paramList.toArray()));
+    }
+
+    public <E> Stream<E> queryStream(String sql, Class<E> resultType, List<Object> paramList) {
+        return queryStream(sql, resultType, "", paramList);
+    }
+
+    /**
+     * 流式查询，结果逐行读取、逐行转换，不会一次性加载到内存。使用只向前的游标，每次读取 fetchSize 行
+     * 
+     * 流在读取结束或者调用 close 时释放结果集与链接，可以交给其它线程读取和关闭，建议配合 try-with-resources。没有关闭就被丢弃的流由链接管理的后台线程回收：
+     * 
+     * <pre>
+     * try (Stream&lt;Student&gt; stream = DB.use().queryStream(sql, Student.class, params)) {
+     *     stream.forEach(...);
+     * }
+     * </pre>
+     * 
+     * 部分驱动（如 PostgreSQL）只在非自动提交时按 fetchSize 读取，此时需要放在 tx 中执行
+     * 
+     * @param <E>
+     * @param sql
+     * @param resultType
+     * @param resultMap
+     * @param paramList
+     * @return
+     */
+    public <E> Stream<E> queryStream(String sql, Class<E> resultType, String resultMap, List<Object> paramList) {
+        formatSqlParam(paramList);
+        printSql(sql, resultType, resultMap, paramList);
+        try {
+            RowCursor<E> cursor = new RowCursor<>();
+            cursor.cursor = connectionManager.openCursor(cursor);
+            try {
+                // 不使用语句缓存，游标的 fetchSize 与结果集类型不影响其它查询
+                cursor.ps = cursor.cursor.register(cursor.cursor.getConnection().prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY));
+                cursor.ps.setFetchSize(fetchSize);
+                StatementUtil.fillParams(cursor.ps, paramList == null ? new Object[] {} : paramList.toArray());
+                cursor.rs = cursor.cursor.register(cursor.ps.executeQuery());
+                cursor.mapper = ResultMapManager.getRowMapper(resultType, resultMap, cursor.rs.getMetaData(), true);
+            } catch (SQLException | RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false).onClose(cursor::close);
+        } catch (SQLException e) {
+            throw new ExecuteException(e);
+        }
+    }
+
+    /**
+     * 流式查询的游标，读取结束或者出错时自动关闭，关闭时释放打开游标时的链接
+     */
+    private static class RowCursor<E> implements Iterator<E> {
+        private ConnectionManager.Cursor cursor;
+        private PreparedStatement ps;
+        private ResultSet rs;
+        private RowMapper<E> mapper;
+        /**
+         * 是否已经读取下一行但还没有返回
+         */
+        private boolean ready;
+        private boolean closed;
+
+        @Override
+        public boolean hasNext() {
+            if (ready) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                ready = rs.next();
+            } catch (SQLException e) {
+                close();
+                throw new ExecuteException(e);
+            }
+            if (!ready) {
+                close();
+            }
+            return ready;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            try {
+                return mapper.map(rs);
+            } catch (SQLException | RuntimeException e) {
+                close();
+                throw e instanceof RuntimeException ? (RuntimeException) e : new ExecuteException(e);
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready = false;
+            cursor.close();
+        }
+    }
+
+    private static interface StatementWork<R> {
+        public R apply(PreparedStatement ps) throws SQLException;
+    }
+
+    /**
+     * 在当前线程的链接上使用缓存的语句执行，执行失败的语句不再复用
+     * 
+     * @param <R>
+     * @param sql
+     * @param work
+     * @return
+     * @throws SQLException
+     */
+    private <R> R withStatement(String sql, StatementWork<R> work) throws SQLException {
+        connectionManager.open();
+        try {
+            PreparedStatement ps = connectionManager.prepareStatement(sql);
+            boolean reuse = false;
+            try {
+                R result = work.apply(ps);
+                reuse = true;
+                return result;
+            } finally {
+                connectionManager.closeStatement(sql, ps, reuse);
+            }
+        } finally {
+            connectionManager.close();
+        }
+    }
+
+    /**
+     * 类型转换。查询结果已经由 ResultMapManager.getRowMapper 直接从结果集转换，这里用于已经读取为 Entity 的数据
      * 
      * @param <E>
      * @param e
@@ -201,6 +575,10 @@ public class DB {
         if (e == null) {
             return null;
         }
+        // 返回 Map 或者 Object 时直接使用查询到的行
+        if (resultType.isInstance(e)) {
+            return resultType.cast(e);
+        }
         try {
             if (resultType.isAnnotationPresent(ResultEntity.class)) {
                 Map<String, Field> map = ResultMapManager.getResultMap(resultType, resultMap);
@@ -251,7 +629,7 @@ public class DB {
      * @param clazz
      * @return
      */
-    private static boolean isBaseTypeForSql(Class<?> clazz) {
+    public static boolean isBaseTypeForSql(Class<?> clazz) {
         for (Class<?> parent : SQL_OBJECT_CLASS) {
             if (parent.isAssignableFrom(clazz)) {
                 return true;
@@ -7,6 +7,7 @@ import java.lang.annotation.*;
  * value 为必填项
  * type 默认为 SqlType.select
  * resultMap 默认为 ""
+ * cache 默认为 false
  */
 @Target({ ElementType.METHOD })
 @Retention(RetentionPolicy.RUNTIME)
@@ -19,6 +20,21 @@ public @interface Sql {
 
     public String resultMap() default "";
 
+    /**
+     * 是否缓存查询结果，仅对 select 生效。key 为最终的sql与参数，涉及的表有写入时失效
+     */
+    public boolean cache() default false;
+
+    /**
+     * 查询结果的缓存时间，单位毫秒
+     */
+    public long cacheTtl() default 60_000;
+
+    /**
+     * 查询涉及的表，为空时从sql的 from、join 中解析
+     */
+    public String[] tables() default {};
+
     public static enum SqlType {
         insert, update, delete, select, execute
     }
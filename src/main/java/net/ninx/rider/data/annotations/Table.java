@@ -10,4 +10,22 @@ import java.lang.annotation.*;
 @Documented
 public @interface Table {
     String name() default "";
-}
\ No newline at end of file
+
+    /**
+     * 是否开启实体缓存，开启后 BaseMapper.get 按 id 缓存结果，写入时自动失效
+     * @return
+     */
+    boolean cache() default false;
+
+    /**
+     * 实体缓存的最大条数
+     * @return
+     */
+    int cacheSize() default 1000;
+
+    /**
+     * 实体缓存的过期时间，单位毫秒
+     * @return
+     */
+    long cacheTtl() default 60_000;
+}
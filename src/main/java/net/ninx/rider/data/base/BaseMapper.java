@@ -2,14 +2,33 @@ package net.ninx.rider.data.base;
 
 import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import cn.hutool.core.collection.CollUtil;
+import com.alibaba.fastjson.JSON;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.convert.Convert;
 import cn.hutool.core.util.TypeUtil;
+import lombok.RequiredArgsConstructor;
 import net.ninx.rider.data.DB;
+import net.ninx.rider.data.manager.EntityCache;
+import net.ninx.rider.data.manager.ResultMapManager;
+import net.ninx.rider.data.manager.ResultMapManager.RowMapper;
 import net.ninx.rider.data.manager.TableManager;
+import net.ninx.rider.data.manager.TableManager.BoundSql;
+import net.ninx.rider.data.manager.TableManager.TableColumnConfig;
 import net.ninx.rider.data.manager.TableManager.TableElement;
 
 /**
@@ -32,33 +51,71 @@ public abstract class BaseMapper<T extends BasePo> {
         data.setCreateTime(new Date());
         data.setUpdateTime(new Date());
         data.setDeleted(false);
-        data.setId(IdMaker.getOneId());
+        data.setId(DB.use().getIdGenerator().nextId());
 
         TableElement tableInfo = TableManager.getTableInfo(getTClass());
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("insert into ");
-        sb.append(tableInfo.getTableName());
-        sb.append(" (");
-        sb.append(CollUtil.join(tableInfo.getColumns().stream().map(e -> e.COLUMN_NAME()).collect(Collectors.toList()), ", "));
-        sb.append(") values (");
-        sb.append(CollUtil.join(tableInfo.getColumns().stream().map(e -> "?").collect(Collectors.toList()), ", "));
-        sb.append(")");
-
         try {
-            DB.use().execute(sb.toString(), tableInfo.getColumns().stream().map(e -> {
-                try {
-                    return e.field().get(data);
-                } catch (IllegalArgumentException | IllegalAccessException e1) {
-                    throw new RuntimeException(e1);
-                }
-            }).collect(Collectors.toList()));
+            BoundSql bound = tableInfo.bindInsert(data);
+            DB.use().execute(bound.getSql(), bound.getParams());
         } catch (SQLException e1) {
             throw new RuntimeException(e1);
         }
         return data;
     }
 
+    /**
+     * 批量添加记录，返回添加后的结果，主要是 id。按 DB 配置的 batchSize 分批，在同一个事务中写入
+     * 
+     * @param dataList
+     * @return
+     */
+    public List<T> createAll(Collection<T> dataList) {
+        return createAll(dataList, DB.use().getBatchSize());
+    }
+
+    /**
+     * 批量添加记录，返回添加后的结果，主要是 id。每 batchSize 条使用一次 JDBC batch 写入，全部记录在同一个事务中
+     * 
+     * @param dataList
+     * @param batchSize
+     * @return
+     */
+    public List<T> createAll(Collection<T> dataList, int batchSize) {
+        if (dataList == null || dataList.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int size = batchSize <= 0 ? dataList.size() : batchSize;
+
+        TableElement tableInfo = TableManager.getTableInfo(getTClass());
+        String sql = tableInfo.getInsertSql();
+        long now = System.currentTimeMillis();
+
+        long[] ids = DB.use().getIdGenerator().nextIds(dataList.size());
+
+        DB.use().tx(() -> {
+            List<List<Object>> batch = new ArrayList<>(Math.min(size, dataList.size()));
+            int i = 0;
+            for (T data : dataList) {
+                data.setCreateTime(new Date(now));
+                data.setUpdateTime(new Date(now));
+                data.setDeleted(false);
+                data.setId(ids[i++]);
+                batch.add(tableInfo.bindInsert(data).getParams());
+
+                if (batch.size() >= size) {
+                    DB.use().executeBatch(sql, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                DB.use().executeBatch(sql, batch);
+            }
+            return null;
+        });
+        return new ArrayList<>(dataList);
+    }
+
     /**
      * 更新数据，空值会进行替换
      * 
@@ -70,29 +127,41 @@ public abstract class BaseMapper<T extends BasePo> {
 
         TableElement tableInfo = TableManager.getTableInfo(getTClass());
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("update ");
-        sb.append(tableInfo.getTableName());
-        sb.append(" set ");
-        sb.append(CollUtil.join(tableInfo.getColumns().stream().filter(e -> !e.COLUMN_NAME().equals("ID")).map(e -> e.COLUMN_NAME() + "=?").collect(Collectors.toList()), ", "));
-        sb.append(" where ID = ?");
-
-        List<Object> params = tableInfo.getColumns().stream().filter(e -> !e.COLUMN_NAME().equals("ID")).map(e -> {
-            try {
-                return e.field().get(data);
-            } catch (IllegalArgumentException | IllegalAccessException e1) {
-                throw new RuntimeException(e1);
-            }
-        }).collect(Collectors.toList());
-        params.add(data.getId());
-
         try {
-            return DB.use().execute(sb.toString(), params);
+            BoundSql bound = tableInfo.bindPut(data);
+            int count = DB.use().execute(bound.getSql(), bound.getParams());
+            invalidate(tableInfo, data.getId());
+            return count;
         } catch (SQLException e1) {
             throw new RuntimeException(e1);
         }
     }
 
+    /**
+     * 批量更新数据，空值会进行替换。所有记录共用一条sql，分批写入，在同一个事务中
+     * 
+     * @param dataList
+     * @return 影响的行数
+     */
+    public int putAll(Collection<T> dataList) {
+        if (dataList == null || dataList.isEmpty()) {
+            return 0;
+        }
+        TableElement tableInfo = TableManager.getTableInfo(getTClass());
+        long now = System.currentTimeMillis();
+
+        List<List<Object>> rows = new ArrayList<>(dataList.size());
+        for (T data : dataList) {
+            data.setUpdateTime(new Date(now));
+            rows.add(tableInfo.bindPut(data).getParams());
+        }
+        Map<String, List<List<Object>>> groups = new HashMap<>();
+        groups.put(tableInfo.getPutSql(), rows);
+        int count = executeGroups(groups);
+        dataList.forEach(e -> invalidate(tableInfo, e.getId()));
+        return count;
+    }
+
     /**
      * 更新数据，空值不会进行set操作
      * 
@@ -104,35 +173,92 @@ public abstract class BaseMapper<T extends BasePo> {
 
         TableElement tableInfo = TableManager.getTableInfo(getTClass());
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("update ");
-        sb.append(tableInfo.getTableName());
-        sb.append(" set ");
-        sb.append(CollUtil.join(tableInfo.getColumns().stream().filter(e -> !e.COLUMN_NAME().equals("ID")).filter(e -> {
-            try {
-                return e.field().get(data) != null;
-            } catch (IllegalArgumentException | IllegalAccessException e2) {
-                throw new RuntimeException(e2);
-            }
-        }).map(e -> e.COLUMN_NAME() + "=?").collect(Collectors.toList()), ", "));
-        sb.append(" where ID = ?");
-
-        List<Object> params = tableInfo.getColumns().stream().filter(e -> !e.COLUMN_NAME().equals("ID")).map(e -> {
-            try {
-                return e.field().get(data);
-            } catch (IllegalArgumentException | IllegalAccessException e1) {
-                throw new RuntimeException(e1);
-            }
-        }).filter(e -> e != null).collect(Collectors.toList());
-        params.add(data.getId());
-
         try {
-            return DB.use().execute(sb.toString(), params);
+            BoundSql bound = tableInfo.bindUpdate(data);
+            int count = DB.use().execute(bound.getSql(), bound.getParams());
+            invalidate(tableInfo, data.getId());
+            return count;
         } catch (SQLException e1) {
             throw new RuntimeException(e1);
         }
     }
 
+    /**
+     * 批量更新数据，空值不会进行set操作。非空字段相同的记录共用一条sql，分批写入，在同一个事务中
+     * 
+     * @param dataList
+     * @return 影响的行数
+     */
+    public int updateAll(Collection<T> dataList) {
+        if (dataList == null || dataList.isEmpty()) {
+            return 0;
+        }
+        TableElement tableInfo = TableManager.getTableInfo(getTClass());
+        long now = System.currentTimeMillis();
+
+        // 按非空字段分组
+        Map<String, List<List<Object>>> groups = new LinkedHashMap<>();
+        for (T data : dataList) {
+            data.setUpdateTime(new Date(now));
+            BoundSql bound = tableInfo.bindUpdate(data);
+            groups.computeIfAbsent(bound.getSql(), k -> new ArrayList<>()).add(bound.getParams());
+        }
+        int count = executeGroups(groups);
+        dataList.forEach(e -> invalidate(tableInfo, e.getId()));
+        return count;
+    }
+
+    /**
+     * 每组sql按 batchSize 分批执行，全部在同一个事务中。驱动返回 SUCCESS_NO_INFO 时按 1 行计算
+     * 
+     * @param groups
+     * @return
+     */
+    private static int executeGroups(Map<String, List<List<Object>>> groups) {
+        int size = DB.use().getBatchSize() <= 0 ? Integer.MAX_VALUE : DB.use().getBatchSize();
+        return DB.use().tx(() -> {
+            int total = 0;
+            for (Map.Entry<String, List<List<Object>>> group : groups.entrySet()) {
+                List<List<Object>> rows = group.getValue();
+                for (int from = 0; from < rows.size(); from += size) {
+                    int[] counts = DB.use().executeBatch(group.getKey(), rows.subList(from, Math.min(rows.size(), from + size)));
+                    for (int count : counts) {
+                        total += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+                    }
+                }
+            }
+            return total;
+        });
+    }
+
+    /**
+     * 写入后失效实体缓存。事务中写入时，事务结束后再失效一次，避免其它线程在提交前读到旧数据并存入缓存
+     * 
+     * @param tableInfo
+     * @param id
+     */
+    private static void invalidate(TableElement tableInfo, Long id) {
+        EntityCache cache = tableInfo.getCache();
+        if (cache == null || id == null) {
+            return;
+        }
+        cache.invalidate(id);
+        if (DB.use().getConnectionManager().inTransaction()) {
+            DB.use().getConnectionManager().afterTransaction(() -> cache.invalidate(id));
+        }
+    }
+
+    /**
+     * 事务中读取可能看到未提交的数据，不使用实体缓存
+     * 
+     * @param tableInfo
+     * @return
+     */
+    private static EntityCache readableCache(TableElement tableInfo) {
+        EntityCache cache = tableInfo.getCache();
+        return cache == null || DB.use().getConnectionManager().inTransaction() ? null : cache;
+    }
+
     /**
      * 根据id删除结果
      * 
@@ -150,21 +276,95 @@ public abstract class BaseMapper<T extends BasePo> {
     }
 
     /**
-     * 根据Id获取一个, 没有返回 null
+     * 根据Id获取一个, 没有返回 null。开启实体缓存时优先从缓存获取
      * 
      * @param id
      * @return
      */
+    @SuppressWarnings("unchecked")
     public T get(Long id) {
+        EntityCache cache = id == null ? null : readableCache(TableManager.getTableInfo(getTClass()));
+        long stamp = 0;
+        if (cache != null) {
+            T cached = (T) cache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+            stamp = cache.stamp(id);
+        }
         try {
             T example = getTClass().getDeclaredConstructor().newInstance();
             example.setId(id);
-            return getOne(example);
+            T result = getOne(example);
+            if (cache != null) {
+                cache.put(id, result, stamp);
+            }
+            return result;
         } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * 根据一组 id 批量获取，返回 id 到结果的映射，按传入顺序排列，不存在的 id 不在结果中
+     * 
+     * 开启实体缓存时优先从缓存获取。其余 id 按 DB 配置的 inListSize 分成多条 in (...) 查询，池化模式下多条查询并行执行
+     * 
+     * @param ids
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Long, T> getAll(Collection<Long> ids) {
+        Map<Long, T> result = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        List<Long> distinct = ids.stream().filter(e -> e != null).distinct().collect(Collectors.toList());
+        int size = Math.max(1, DB.use().getInListSize());
+        TableElement tableInfo = TableManager.getTableInfo(getTClass());
+        Map<Long, T> found = new HashMap<>(distinct.size() * 4 / 3 + 1);
+
+        // 先从实体缓存中获取
+        EntityCache cache = readableCache(tableInfo);
+        Map<Long, Long> stamps = new HashMap<>();
+        List<Long> missing = distinct;
+        if (cache != null) {
+            missing = new ArrayList<>();
+            for (Long id : distinct) {
+                T cached = (T) cache.get(id);
+                if (cached != null) {
+                    found.put(id, cached);
+                } else {
+                    missing.add(id);
+                    stamps.put(id, cache.stamp(id));
+                }
+            }
+        }
+
+        List<Callable<List<T>>> tasks = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += size) {
+            BoundSql bound = tableInfo.bindSelectByIds(missing.subList(from, Math.min(missing.size(), from + size)));
+            tasks.add(() -> DB.use().queryList(bound.getSql(), getTClass(), bound.getParams()));
+        }
+
+        for (List<T> rows : DB.use().parallel(tasks)) {
+            for (T row : rows) {
+                found.put(row.getId(), row);
+                Long stamp = stamps.get(row.getId());
+                if (cache != null && stamp != null) {
+                    cache.put(row.getId(), row, stamp);
+                }
+            }
+        }
+        for (Long id : distinct) {
+            T row = found.get(id);
+            if (row != null) {
+                result.put(id, row);
+            }
+        }
+        return result;
+    }
+
     /**
      * 根据示例获取一个结果, 没有返回 null. 示例中空值不做等于判断
      * 
@@ -190,6 +390,66 @@ public abstract class BaseMapper<T extends BasePo> {
         return list(example, 1L, Long.MAX_VALUE);
     }
 
+    /**
+     * 根据示例获取所有结果，只查询指定的列，其余字段为空。示例中空值不做等于判断
+     * 
+     * @param example
+     * @param fields 字段名或者列名
+     * @return
+     */
+    public List<T> listFields(T example, String... fields) {
+        TableElement tableInfo = TableManager.getTableInfo(getTClass());
+        BoundSql bound = tableInfo.bindSelect(example, tableInfo.getProjection(fields));
+        try {
+            return DB.use().queryList(bound.getSql(), getTClass(), bound.getParams());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 根据示例获取所有结果并转换为 view，只查询 view 中存在的列。示例中空值不做等于判断
+     * 
+     * @param <V>
+     * @param example
+     * @param view @ResultEntity 或者普通类，按字段名匹配列
+     * @return
+     */
+    public <V> List<V> listAs(T example, Class<V> view) {
+        TableElement tableInfo = TableManager.getTableInfo(getTClass());
+        BoundSql bound = tableInfo.bindSelect(example, tableInfo.getProjection(view));
+        try {
+            return DB.use().queryList(bound.getSql(), view, bound.getParams());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 根据示例流式获取所有结果，逐行读取，不会一次性加载到内存。示例中空值不做等于判断
+     * 
+     * 流需要在当前线程中使用并关闭，见 DB.queryStream
+     * 
+     * @param example
+     * @return
+     */
+    public Stream<T> stream(T example) {
+        BoundSql bound = TableManager.getTableInfo(getTClass()).bindSelect(example);
+        return DB.use().queryStream(bound.getSql(), getTClass(), bound.getParams());
+    }
+
+    /**
+     * 根据示例逐条处理所有结果，处理完成后释放链接。示例中空值不做等于判断
+     * 
+     * @param example
+     * @param action
+     */
+    public void forEach(T example, Consumer<T> action) {
+        try (Stream<T> stream = stream(example)) {
+            stream.forEach(action);
+        }
+    }
+
     /**
      * 根据示例获取分页结果。示例中空值不做等于判断. 默认取 pageAt = 1，pageSize = 10。 分页的起始页为 1， 分页方式为 limit a, b
      * 
@@ -208,33 +468,18 @@ public abstract class BaseMapper<T extends BasePo> {
 
         TableElement tableInfo = TableManager.getTableInfo(getTClass());
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("select * from ");
-        sb.append(tableInfo.getTableName());
-        sb.append(" where deleted = false and ");
-        sb.append(CollUtil.join(tableInfo.getColumns().stream().filter(e -> {
-            try {
-                return e.field().get(example) != null;
-            } catch (IllegalArgumentException | IllegalAccessException e2) {
-                throw new RuntimeException(e2);
-            }
-        }).map(e -> e.COLUMN_NAME() + " = ? ").collect(Collectors.toList()), " and "));
+        BoundSql bound = tableInfo.bindSelect(example);
+        StringBuilder sb = new StringBuilder(bound.getSql());
 
         if (pageSize != Long.MAX_VALUE) {
-            sb.append("limit ");
+            sb.append(" limit ");
             sb.append(elementStart);
             sb.append(", ");
             sb.append(pageSize);
         }
 
         try {
-            return DB.use().queryList(sb.toString(), getTClass(), tableInfo.getColumns().stream().map(e -> {
-                try {
-                    return e.field().get(example);
-                } catch (IllegalArgumentException | IllegalAccessException e1) {
-                    throw new RuntimeException(e1);
-                }
-            }).filter(e -> e != null).collect(Collectors.toList()));
+            return DB.use().queryList(sb.toString(), getTClass(), bound.getParams());
         } catch (SQLException e1) {
             throw new RuntimeException(e1);
         }
@@ -243,7 +488,7 @@ public abstract class BaseMapper<T extends BasePo> {
     /**
      * 根据示例获取分页结果。示例中空值不做等于判断。分页的起始页为 1， 分页方式为 limit a, b
      * 
-     * 如果设置 pageSize = Long.MAX_VALUE， 则表示不进行分页
+     * 如果设置 pageSize = Long.MAX_VALUE， 则表示不进行分页。总数的统计方式见 Pager.CountMode
      * 
      * @param example
      * @param pageAt
@@ -253,55 +498,191 @@ public abstract class BaseMapper<T extends BasePo> {
     public Pager<T> list(T example, Pager<T> pager) {
         try {
             long elementStart = (pager.getPageAt() - 1) * pager.getPageSize();
+            boolean limited = pager.getPageSize() != Long.MAX_VALUE;
 
             TableElement tableInfo = TableManager.getTableInfo(getTClass());
-            StringBuilder sb = new StringBuilder();
-            sb.append("select * from ");
-            sb.append(tableInfo.getTableName());
-            sb.append(" where  deleted = false and ");
-            sb.append(CollUtil.join(tableInfo.getColumns().stream().filter(e -> {
-                try {
-                    return e.field().get(example) != null;
-                } catch (IllegalArgumentException | IllegalAccessException e2) {
-                    throw new RuntimeException(e2);
+            BoundSql bound = tableInfo.bindSelect(example);
+            String countSql = "select count(*) from (" + bound.getSql() + ") t";
+
+            switch (pager.getCountMode()) {
+                case NONE: {
+                    // 多取一条判断是否有下一页
+                    List<T> result = DB.use().queryList(limit(bound.getSql(), limited, elementStart, pager.getPageSize() + 1), getTClass(), bound.getParams());
+                    pager.setHasNext(limited && result.size() > pager.getPageSize());
+                    pager.setData(pager.isHasNext() ? new ArrayList<>(result.subList(0, (int) pager.getPageSize())) : result);
+                    pager.setTotalCount(-1);
+                    pager.setTotalPage(-1);
+                    return pager;
                 }
-            }).map(e -> e.COLUMN_NAME() + " = ? ").collect(Collectors.toList()), " and "));
-
-            // 获取总数
-            Integer total = DB.use().query("select count(*) from (" + sb.toString() + ") t", Integer.class, tableInfo.getColumns().stream().map(e -> {
-                try {
-                    return e.field().get(example);
-                } catch (IllegalArgumentException | IllegalAccessException e1) {
-                    throw new RuntimeException(e1);
+                case WINDOW: {
+                    // 总数与分页数据一起返回
+                    String sql = limit("select t.*, count(*) over() as " + WINDOW_TOTAL + " from (" + bound.getSql() + ") t", limited, elementStart, pager.getPageSize());
+                    long[] total = { -1 };
+                    List<T> result = DB.use().query(sql, bound.getParams(), rs -> {
+                        RowMapper<T> mapper = ResultMapManager.getRowMapper(getTClass(), "", rs.getMetaData(), true);
+                        List<T> rows = new ArrayList<>();
+                        while (rs.next()) {
+                            if (total[0] < 0) {
+                                total[0] = rs.getLong(WINDOW_TOTAL);
+                            }
+                            rows.add(mapper.map(rs));
+                        }
+                        return rows;
+                    });
+                    // 超出最后一页时没有数据行，单独统计总数
+                    if (total[0] < 0) {
+                        total[0] = elementStart == 0 ? 0 : count(countSql, bound.getParams());
+                    }
+                    pager.fillTotal(total[0]);
+                    pager.setData(result);
+                    return pager;
                 }
-            }).filter(e -> e != null).collect(Collectors.toList()));
-
-            // 填充分页信息
-            pager.setTotalCount(total);
-            pager.setTotalPage(total / pager.getPageSize() + total % pager.getPageSize() == 0 ? 0 : 1);
-
-            // 进行分页
-            if (pager.getPageSize() != Long.MAX_VALUE) {
-                sb.append("limit ");
-                sb.append(elementStart);
-                sb.append(", ");
-                sb.append(pager.getPageSize());
+                case CACHED:
+                    pager.fillTotal(cachedCount(countSql, bound.getParams(), pager.getCountTtl()));
+                    break;
+                default:
+                    pager.fillTotal(count(countSql, bound.getParams()));
+                    break;
             }
 
             // 获取数据
-            List<T> result = DB.use().queryList(sb.toString(), getTClass(), tableInfo.getColumns().stream().map(e -> {
-                try {
-                    return e.field().get(example);
-                } catch (IllegalArgumentException | IllegalAccessException e1) {
-                    throw new RuntimeException(e1);
-                }
-            }).filter(e -> e != null).collect(Collectors.toList()));
-
-            // 填充数据
-            pager.setData(result);
+            pager.setData(DB.use().queryList(limit(bound.getSql(), limited, elementStart, pager.getPageSize()), getTClass(), bound.getParams()));
             return pager;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * 窗口函数返回总数的列名
+     */
+    private static final String WINDOW_TOTAL = "RIDER_TOTAL__";
+
+    private static final int MAX_CACHED_COUNTS = 1024;
+
+    /**
+     * CACHED 模式缓存的 count 结果，key 为sql与参数。超出容量时淘汰最久未使用的一条
+     */
+    private static final Map<String, CachedCount> countCache = Collections.synchronizedMap(new LinkedHashMap<String, CachedCount>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedCount> eldest) {
+            return size() > MAX_CACHED_COUNTS;
+        }
+    });
+
+    @RequiredArgsConstructor
+    private static class CachedCount {
+        private final long count;
+        private final long expireAt;
+    }
+
+    private static String limit(String sql, boolean limited, long elementStart, long pageSize) {
+        return limited ? sql + " limit " + elementStart + ", " + pageSize : sql;
+    }
+
+    private static long count(String countSql, List<Object> params) {
+        Long total = DB.use().query(countSql, Long.class, params);
+        return total == null ? 0 : total;
+    }
+
+    private static long cachedCount(String countSql, List<Object> params, long ttl) {
+        long now = System.currentTimeMillis();
+        String key = countSql + "\n" + JSON.toJSONString(params);
+        CachedCount cached = countCache.get(key);
+        if (cached != null && cached.expireAt > now) {
+            return cached.count;
+        }
+        long total = count(countSql, params);
+        countCache.put(key, new CachedCount(total, now + ttl));
+        return total;
+    }
+
+    /**
+     * 游标分页，按排序列与 ID 定位下一页，使用 where COL > ? order by COL, ID limit n，不受翻页深度影响。示例中空值不做等于判断
+     * 
+     * @param example
+     * @param pager
+     * @return
+     */
+    public SeekPager<T> list(T example, SeekPager<T> pager) {
+        TableElement tableInfo = TableManager.getTableInfo(getTClass());
+        TableColumnConfig id = tableInfo.getColumn("ID");
+        TableColumnConfig order = pager.getOrderBy() == null ? id : tableInfo.getColumn(pager.getOrderBy());
+        if (order == null) {
+            throw new IllegalArgumentException("Unknown order column: " + pager.getOrderBy());
+        }
+        boolean byId = order == id;
+
+        BoundSql bound = tableInfo.bindSelect(example);
+        StringBuilder sb = new StringBuilder(bound.getSql());
+        List<Object> params = new ArrayList<>(bound.getParams());
+
+        // 从上一页的最后一条之后开始
+        if (pager.getToken() != null) {
+            Object[] position = decodeSeekToken(pager.getToken());
+            Long lastId = Convert.toLong(position[position.length - 1]);
+            if (byId) {
+                sb.append(" and ID > ?");
+                params.add(lastId);
+            } else {
+                Object lastValue = Convert.convert(order.field().getType(), position[0]);
+                sb.append(" and (").append(order.COLUMN_NAME()).append(" > ? or (").append(order.COLUMN_NAME()).append(" = ? and ID > ?))");
+                params.add(lastValue);
+                params.add(lastValue);
+                params.add(lastId);
+            }
+        }
+
+        // 多取一条用于判断是否还有下一页
+        sb.append(" order by ");
+        if (!byId) {
+            sb.append(order.COLUMN_NAME()).append(", ");
+        }
+        sb.append("ID");
+        boolean limited = pager.getPageSize() != Long.MAX_VALUE;
+        if (limited) {
+            sb.append(" limit ").append(pager.getPageSize() + 1);
+        }
+
+        List<T> result;
+        try {
+            result = DB.use().queryList(sb.toString(), getTClass(), params);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (limited && result.size() > pager.getPageSize()) {
+            result = new ArrayList<>(result.subList(0, (int) pager.getPageSize()));
+            T last = result.get(result.size() - 1);
+            pager.setNextToken(encodeSeekToken(byId ? new Object[] { last.getId() } : new Object[] { order.value(last), last.getId() }));
+        } else {
+            pager.setNextToken(null);
+        }
+        pager.setData(result);
+        return pager;
+    }
+
+    /**
+     * 游标为 [排序列的值, ID] 的 json，按 url 安全的 base64 编码
+     * 
+     * @param position
+     * @return
+     */
+    private static String encodeSeekToken(Object[] position) {
+        return Base64.encodeUrlSafe(JSON.toJSONString(position));
+    }
+
+    private static Object[] decodeSeekToken(String token) {
+        try {
+            Object[] position = JSON.parseArray(Base64.decodeStr(token)).toArray();
+            if (position.length == 0) {
+                throw new IllegalArgumentException("Empty token");
+            }
+            return position;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid seek token: " + token, e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package net.ninx.rider.data.base;
+
+/**
+ * id 生成策略，通过 DB.setIdGenerator 设置，BaseMapper 新增记录时使用
+ */
+public interface IdGenerator {
+
+    /**
+     * 默认策略，雪花算法，见 IdMaker
+     */
+    public static final IdGenerator SNOWFLAKE = new IdGenerator() {
+        @Override
+        public long nextId() {
+            return IdMaker.getOneId();
+        }
+
+        @Override
+        public long[] nextIds(int n) {
+            return IdMaker.reserve(n);
+        }
+    };
+
+    public long nextId();
+
+    /**
+     * 通过 DB.setIdGenerator 设置时调用，用于提前准备资源
+     */
+    public default void init() {
+    }
+
+    /**
+     * 一次获取 n 个 id，批量新增时使用
+     * 
+     * @param n
+     * @return
+     */
+    public default long[] nextIds(int n) {
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+}
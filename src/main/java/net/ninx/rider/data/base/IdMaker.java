@@ -1,14 +1,208 @@
 package net.ninx.rider.data.base;
 
-import cn.hutool.core.lang.Snowflake;
-import cn.hutool.core.util.IdUtil;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
 
 /**
  * IdMaker
+ * 
+ * 无锁的雪花算法，位布局与 hutool Snowflake 一致：41 位时间戳（起点 1288834974657）、5 位 datacenterId、5 位 workerId、12 位序列号
+ * 
+ * 时间戳与序列号打包在一个 AtomicLong 中通过 CAS 更新。同一毫秒序列号用尽时借用下一毫秒，时钟回拨时沿用上次的时间戳继续递增，借用超过 MAX_BORROW 毫秒才等待时钟追上
+ * 
+ * workerId 与 datacenterId 依次取自 setWorker、系统属性 rider.data.workerId / rider.data.datacenterId，都没有时根据网卡地址与进程号生成。多节点部署时应显式配置，生成的值可能重复
  */
+@Slf4j
 public class IdMaker {
-    private final static Snowflake snowflake = IdUtil.createSnowflake(1, 1);
-    public synchronized static long getOneId() {
-        return snowflake.nextId();
+
+    private static final long EPOCH = 1288834974657L;
+
+    private static final int WORKER_BITS = 5;
+
+    private static final int DATACENTER_BITS = 5;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final long MAX_WORKER = (1L << WORKER_BITS) - 1;
+
+    private static final long MAX_DATACENTER = (1L << DATACENTER_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final int WORKER_SHIFT = SEQUENCE_BITS;
+
+    private static final int DATACENTER_SHIFT = SEQUENCE_BITS + WORKER_BITS;
+
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + WORKER_BITS + DATACENTER_BITS;
+
+    /**
+     * 时间戳最多领先系统时钟的毫秒数
+     */
+    private static final long MAX_BORROW = 1000;
+
+    /**
+     * (时间戳 - EPOCH) << 12 | 序列号
+     */
+    private static final AtomicLong state = new AtomicLong();
+
+    /**
+     * datacenterId << 17 | workerId << 12
+     */
+    private static volatile long node = defaultNode();
+
+    /**
+     * 设置 workerId 与 datacenterId，需要在生成 id 之前调用
+     * 
+     * @param workerId 0 ~ 31
+     * @param datacenterId 0 ~ 31
+     */
+    public static void setWorker(long workerId, long datacenterId) {
+        node = node(workerId, datacenterId);
+    }
+
+    public static long getWorkerId() {
+        return (node >>> WORKER_SHIFT) & MAX_WORKER;
+    }
+
+    public static long getDatacenterId() {
+        return (node >>> DATACENTER_SHIFT) & MAX_DATACENTER;
+    }
+
+    public static long getOneId() {
+        return toId(claim(1), node);
+    }
+
+    /**
+     * 一次取得 n 个 id。每次 CAS 取得同一毫秒内剩余的一段连续序列号，批量写入时比逐个获取更少竞争
+     * 
+     * @param n
+     * @return 递增的 n 个 id
+     */
+    public static long[] reserve(int n) {
+        long[] ids = new long[n];
+        long nodeBits = node;
+        int filled = 0;
+        while (filled < n) {
+            int wanted = n - filled;
+            long first = claim(wanted);
+            long count = Math.min(wanted, SEQUENCE_MASK - (first & SEQUENCE_MASK) + 1);
+            for (long i = 0; i < count; i++) {
+                ids[filled++] = toId(first + i, nodeBits);
+            }
+        }
+        return ids;
+    }
+
+    private static long toId(long packed, long nodeBits) {
+        return ((packed >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | nodeBits | (packed & SEQUENCE_MASK);
+    }
+
+    /**
+     * 取得同一毫秒内的 min(wanted, 本毫秒剩余) 个连续序列号，返回第一个 (时间戳 << 12 | 序列号)
+     * 
+     * @param wanted
+     * @return
+     */
+    private static long claim(int wanted) {
+        for (;;) {
+            long prev = state.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long prevTime = prev >>> SEQUENCE_BITS;
+
+            long first;
+            if (now > prevTime) {
+                // 新的毫秒，序列号从 0 开始
+                first = now << SEQUENCE_BITS;
+            } else if ((prev & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                // 同一毫秒，或者时钟回拨时沿用上次的时间戳
+                first = prev + 1;
+            } else if (prevTime + 1 - now <= MAX_BORROW) {
+                // 序列号用尽，借用下一毫秒
+                first = (prevTime + 1) << SEQUENCE_BITS;
+            } else {
+                Thread.yield();
+                continue;
+            }
+            long last = first + Math.min(wanted, SEQUENCE_MASK - (first & SEQUENCE_MASK) + 1) - 1;
+            if (state.compareAndSet(prev, last)) {
+                return first;
+            }
+        }
+    }
+
+    private static long node(long workerId, long datacenterId) {
+        if (workerId < 0 || workerId > MAX_WORKER) {
+            throw new IllegalArgumentException("workerId must be between 0 and " + MAX_WORKER + ": " + workerId);
+        }
+        if (datacenterId < 0 || datacenterId > MAX_DATACENTER) {
+            throw new IllegalArgumentException("datacenterId must be between 0 and " + MAX_DATACENTER + ": " + datacenterId);
+        }
+        return (datacenterId << DATACENTER_SHIFT) | (workerId << WORKER_SHIFT);
+    }
+
+    private static long defaultNode() {
+        Long datacenter = property("rider.data.datacenterId", MAX_DATACENTER);
+        long datacenterId = datacenter != null ? datacenter : deriveDatacenterId();
+        Long worker = property("rider.data.workerId", MAX_WORKER);
+        long workerId = worker != null ? worker : deriveWorkerId(datacenterId);
+        log.debug("IdMaker workerId: " + workerId + ", datacenterId: " + datacenterId);
+        return node(workerId, datacenterId);
+    }
+
+    /**
+     * 读取系统属性，没有设置或者不是 0 ~ max 之间的整数时返回 null，使用生成的值。类初始化时不抛出异常，避免 IdMaker 不可用
+     * 
+     * @param name
+     * @param max
+     * @return
+     */
+    private static Long property(String name, long max) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            long id = Long.parseLong(value.trim());
+            if (id >= 0 && id <= max) {
+                return id;
+            }
+        } catch (NumberFormatException e) {
+            // 使用生成的值
+        }
+        log.warn("Invalid system property " + name + "=" + value + ", must be between 0 and " + max + ", use the derived value instead");
+        return null;
+    }
+
+    /**
+     * 根据本机网卡地址生成
+     * 
+     * @return
+     */
+    private static long deriveDatacenterId() {
+        try {
+            NetworkInterface network = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+            byte[] mac = network == null ? null : network.getHardwareAddress();
+            if (mac != null && mac.length >= 2) {
+                return ((0xFF & mac[mac.length - 2]) << 8 | (0xFF & mac[mac.length - 1])) % (MAX_DATACENTER + 1);
+            }
+        } catch (Exception e) {
+            log.debug("Derive datacenterId failed: " + e);
+        }
+        return 1;
+    }
+
+    /**
+     * 根据 datacenterId 与进程号生成
+     * 
+     * @param datacenterId
+     * @return
+     */
+    private static long deriveWorkerId(long datacenterId) {
+        String jvm = ManagementFactory.getRuntimeMXBean().getName();
+        return ((datacenterId + "" + jvm).hashCode() & 0xFFFF) % (MAX_WORKER + 1);
     }
-}
\ No newline at end of file
+}
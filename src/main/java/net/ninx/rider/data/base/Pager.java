@@ -13,10 +13,51 @@ import lombok.Setter;
 public class Pager<T> {
     private long pageAt;
     private long pageSize;
+    /**
+     * 总页数，不统计总数时为 -1
+     */
     private long totalPage;
+    /**
+     * 总数，不统计总数时为 -1
+     */
     private long totalCount;
+    /**
+     * 是否还有下一页
+     */
+    private boolean hasNext;
     private List<T> data;
 
+    /**
+     * 总数的统计方式，默认每次执行 count
+     */
+    private CountMode countMode = CountMode.EXACT;
+    /**
+     * CACHED 模式下总数的缓存时间，单位毫秒
+     */
+    private long countTtl = 10_000;
+
+    /**
+     * 总数的统计方式
+     */
+    public static enum CountMode {
+        /**
+         * 每次单独执行 count 查询
+         */
+        EXACT,
+        /**
+         * 不统计总数，多取一条判断是否有下一页
+         */
+        NONE,
+        /**
+         * 相同条件的 count 结果缓存 countTtl 毫秒
+         */
+        CACHED,
+        /**
+         * 通过窗口函数 count(*) over() 与分页数据一起返回，需要数据库支持窗口函数（MySQL 8、PostgreSQL、SQLite 3.25 等）
+         */
+        WINDOW
+    }
+
     private Pager() {
     }
 
@@ -31,4 +72,22 @@ public class Pager<T> {
         return pageResult;
     }
 
-}
\ No newline at end of file
+    @SuppressWarnings("rawtypes")
+    public static Pager of(Long pageAt, Long pageSize, CountMode countMode) {
+        Pager pageResult = of(pageAt, pageSize);
+        pageResult.setCountMode(countMode == null ? CountMode.EXACT : countMode);
+        return pageResult;
+    }
+
+    /**
+     * 根据总数填充总页数与是否有下一页
+     * 
+     * @param totalCount
+     */
+    void fillTotal(long totalCount) {
+        this.totalCount = totalCount;
+        this.totalPage = pageSize == Long.MAX_VALUE ? (totalCount > 0 ? 1 : 0) : (totalCount + pageSize - 1) / pageSize;
+        this.hasNext = pageAt < totalPage;
+    }
+
+}
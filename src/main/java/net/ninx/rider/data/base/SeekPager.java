@@ -0,0 +1,49 @@
+package net.ninx.rider.data.base;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 游标分页结果。按排序列与 ID 定位下一页的起点，翻页深度不影响查询速度
+ * 
+ * 第一页的 token 为 null，之后每次传入上一页返回的 nextToken，nextToken 为 null 表示没有下一页
+ */
+@Getter
+@Setter
+public class SeekPager<T> {
+    private long pageSize;
+    /**
+     * 排序列，字段名或者列名，为 null 时按 ID 排序。该列需要有索引并且不能为空
+     */
+    private String orderBy;
+    /**
+     * 当前页的起点，由上一页返回
+     */
+    private String token;
+    /**
+     * 下一页的起点，没有下一页时为 null
+     */
+    private String nextToken;
+    private List<T> data;
+
+    private SeekPager() {
+    }
+
+    public static <T> SeekPager<T> of(String token, Long pageSize) {
+        return of(token, pageSize, null);
+    }
+
+    public static <T> SeekPager<T> of(String token, Long pageSize, String orderBy) {
+        SeekPager<T> pager = new SeekPager<>();
+        pager.setToken(token);
+        pager.setPageSize(pageSize == null ? 10 : pageSize);
+        pager.setOrderBy(orderBy);
+        return pager;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
@@ -0,0 +1,301 @@
+package net.ninx.rider.data.base;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import net.ninx.rider.data.DB;
+import net.ninx.rider.data.manager.TableManager;
+
+/**
+ * 号段 id 生成策略，不需要为每个节点分配 workerId
+ * 
+ * 每次从号段表 RIDER_SEQUENCE 中取得 step 个连续的 id，在内存中依次分配。当前号段用掉 prefetchRatio 时在后台线程预取下一个号段，正常情况下分配 id 不需要等待数据库
+ * 
+ * 号段在后台线程自己的链接中获取，调用方事务回滚不会导致 id 重复。多个节点通过 update ... where NEXT_ID = ? 乐观更新，不需要行锁。通过 DB.setIdGenerator 设置时创建号段表并取得第一个号段
+ * 
+ * 号段用尽时，不在事务中则在调用方的链接上同步获取；在事务中则由后台线程在另外的链接上获取，调用方最多等待 waitTimeout 毫秒。SQLite 只允许一个写入者，事务持有写锁期间后台线程无法取得号段，
+ * 等待只会超时，此时直接抛出异常，一个事务最多使用当前号段剩余的 id，step 需要大于单个事务新增的记录数
+ */
+@Slf4j
+public class SegmentIdGenerator implements IdGenerator {
+
+    /**
+     * 序列名，对应号段表的一行
+     */
+    @Getter
+    private final String name;
+
+    /**
+     * 每个号段的 id 个数
+     */
+    @Getter
+    private final long step;
+
+    /**
+     * 当前号段用掉该比例时预取下一个号段
+     */
+    @Getter
+    private final double prefetchRatio;
+
+    /**
+     * 在事务中号段用尽时，等待后台线程取得下一个号段的最长毫秒数
+     */
+    @Getter
+    @Setter
+    private volatile long waitTimeout = 5000;
+
+    private volatile Segment current;
+
+    private final AtomicReference<Future<Segment>> next = new AtomicReference<>();
+
+    private final ExecutorService loader;
+
+    private volatile boolean tableReady;
+
+    /**
+     * 数据库是否只允许一个写入者，首次需要时由链接信息判断
+     */
+    private volatile Boolean singleWriter;
+
+    @RequiredArgsConstructor
+    private static class Segment {
+        private final long start;
+        private final long end;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+    }
+
+    public SegmentIdGenerator() {
+        this("DEFAULT", 1000, 0.1);
+    }
+
+    public SegmentIdGenerator(String name, long step, double prefetchRatio) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step must be positive: " + step);
+        }
+        this.name = name;
+        this.step = step;
+        this.prefetchRatio = prefetchRatio;
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "rider-data-id-segment-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public long nextId() {
+        for (;;) {
+            Segment segment = current;
+            if (segment != null) {
+                long id = segment.cursor.getAndIncrement();
+                if (id < segment.end) {
+                    if (id == segment.prefetchAt) {
+                        prefetch();
+                    }
+                    return id;
+                }
+            }
+            switchSegment(segment);
+        }
+    }
+
+    /**
+     * 创建号段表并取得第一个号段，DB.setIdGenerator 时调用
+     */
+    @Override
+    public synchronized void init() {
+        if (current == null) {
+            current = allocateHere();
+        }
+    }
+
+    private void prefetch() {
+        if (next.get() == null) {
+            synchronized (next) {
+                if (next.get() == null) {
+                    next.set(loader.submit(() -> {
+                        try {
+                            return allocate();
+                        } finally {
+                            DB.use().releaseConnection();
+                        }
+                    }));
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前号段用尽，切换到预取的号段。预取的号段没有就绪时，不在事务中则同步获取，在事务中等待后台线程获取，只允许一个写入者的数据库直接失败
+     * 
+     * @param exhausted
+     */
+    private synchronized void switchSegment(Segment exhausted) {
+        if (current != exhausted) {
+            return;
+        }
+        Segment segment = prefetched();
+        if (segment == null) {
+            if (DB.use().getConnectionManager().inTransaction()) {
+                prefetch();
+                if (isSingleWriter()) {
+                    // 后台线程需要等待当前事务的写锁，等待只会超时
+                    throw new IllegalStateException("Id segment " + name + " exhausted in a transaction and the next segment is not ready, use a larger step");
+                }
+                segment = awaitPrefetched();
+            } else {
+                segment = allocateHere();
+            }
+        }
+        current = segment;
+    }
+
+    /**
+     * 等待后台线程取得的号段，最多等待 waitTimeout 毫秒
+     * 
+     * @return
+     */
+    private Segment awaitPrefetched() {
+        Future<Segment> future = next.get();
+        try {
+            Segment segment = future.get(waitTimeout, TimeUnit.MILLISECONDS);
+            next.compareAndSet(future, null);
+            return segment;
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Id segment " + name + " exhausted in a transaction and the next segment is not ready in " + waitTimeout + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for id segment " + name);
+        } catch (ExecutionException e) {
+            next.compareAndSet(future, null);
+            throw new DB.ExecuteException(e.getCause());
+        }
+    }
+
+    /**
+     * 是否只允许一个写入者（SQLite），由当前线程链接的数据库产品名判断
+     * 
+     * @return
+     */
+    private boolean isSingleWriter() {
+        if (singleWriter == null) {
+            try {
+                Connection connection = DB.use().getConnectionManager().open();
+                try {
+                    singleWriter = connection.getMetaData().getDatabaseProductName().toLowerCase().contains("sqlite");
+                } finally {
+                    DB.use().getConnectionManager().close();
+                }
+            } catch (SQLException e) {
+                throw new DB.ExecuteException(e);
+            }
+        }
+        return singleWriter;
+    }
+
+    /**
+     * 已经就绪的预取号段，没有或者预取失败时返回 null
+     * 
+     * @return
+     */
+    private Segment prefetched() {
+        Future<Segment> future = next.get();
+        if (future == null || !future.isDone()) {
+            return null;
+        }
+        next.compareAndSet(future, null);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Prefetch id segment " + name + " failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * 在调用方的链接上获取号段，调用前没有绑定链接时用完释放
+     * 
+     * @return
+     */
+    private Segment allocateHere() {
+        if (DB.use().getConnectionManager().inTransaction()) {
+            throw new IllegalStateException("Id segment " + name + " can not be allocated in a transaction");
+        }
+        boolean bound = DB.use().getConnectionManager().isBound();
+        try {
+            if (!tableReady) {
+                TableManager.initSequenceTable();
+                tableReady = true;
+            }
+            return allocate();
+        } catch (SQLException e) {
+            throw new DB.ExecuteException(e);
+        } finally {
+            if (!bound) {
+                DB.use().releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * 从号段表取得一个号段
+     * 
+     * @return
+     * @throws SQLException
+     */
+    private Segment allocate() throws SQLException {
+        String table = TableManager.SEQUENCE_TABLE;
+        boolean inserted = false;
+        for (;;) {
+            Long nextId = DB.use().query("select NEXT_ID from " + table + " where NAME = ?", Long.class, new ArrayList<>(Arrays.asList(name)));
+            if (nextId == null) {
+                if (inserted) {
+                    throw new SQLException("Create sequence " + name + " in " + table + " failed");
+                }
+                insertSequence(table);
+                inserted = true;
+                continue;
+            }
+            int updated = DB.use().execute("update " + table + " set NEXT_ID = ? where NAME = ? and NEXT_ID = ?", new ArrayList<>(Arrays.asList(nextId + step, name, nextId)));
+            if (updated == 1) {
+                log.debug("Allocated id segment " + name + ": [" + nextId + ", " + (nextId + step) + ")");
+                return new Segment(nextId, nextId + step, nextId + (long) (step * prefetchRatio), new AtomicLong(nextId));
+            }
+            // 其它节点同时获取了号段，重试
+        }
+    }
+
+    /**
+     * 序列不存在时新增，ID 由序列名生成，多个节点同时新增时只有一个成功
+     * 
+     * @param table
+     */
+    private void insertSequence(String table) {
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes());
+        try {
+            DB.use().execute("insert into " + table + " (ID, NAME, NEXT_ID) values (?, ?, ?)", new ArrayList<>(Arrays.asList(crc.getValue(), name, 1L)));
+        } catch (SQLException e) {
+            log.debug("Insert sequence " + name + " failed, maybe created by another node: " + e);
+        }
+    }
+}
@@ -0,0 +1,700 @@
+package net.ninx.rider.data.manager;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import net.ninx.rider.data.DB;
+
+/**
+ * 链接管理，一个线程一个链接
+ *
+ * 当前线程通过 ThreadLocal 直接命中自己的链接；所有链接同时登记在并发表中，由后台线程回收已结束线程的链接，并报告占用时间过长的链接
+ *
+ * 设置 pool 后进入池化模式：链接只在一次操作（open/close 之间）内绑定在线程上，操作结束即归还链接池
+ *
+ * 流式查询等跨越多次调用的游标通过 openCursor 取得 Cursor，游标记录所用的链接，可以在任意线程关闭。没有关闭就被丢弃的游标由后台线程回收
+ */
+@Slf4j
+public class ConnectionManager {
+
+    /**
+     * 被管理的链接
+     */
+    @Getter
+    public static class ManagedConnection {
+        private final Connection connection;
+        /**
+         * 所属链接池，非池化模式为 null
+         */
+        private final ConnectionPool pool;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private volatile WeakReference<Thread> owner;
+        private volatile long ownerId;
+        private volatile String ownerName;
+        private volatile long acquiredAt;
+        /**
+         * 获取链接时的调用栈，仅在开启泄漏检测时记录
+         */
+        private volatile Throwable acquiredStack;
+        private volatile boolean leakReported;
+
+        /**
+         * 当前线程内 open 的嵌套层数，只由所属线程修改，与 cursors 一起在链接上加锁访问
+         */
+        private int depth;
+        /**
+         * 通过 getConnection 直接取得的链接不会在操作结束时归还
+         */
+        private boolean pinned;
+        /**
+         * 未关闭的游标数，游标可以在其它线程关闭，在链接上加锁访问
+         */
+        private int cursors;
+        /**
+         * 事务嵌套层数，只由所属线程访问
+         */
+        private int txDepth;
+        /**
+         * 最外层事务结束（提交或回滚）后执行的回调，只由所属线程访问
+         */
+        private List<Runnable> afterTransaction;
+
+        /**
+         * 语句缓存，跟随物理链接，归还链接池后仍然保留
+         */
+        private StatementCache statements;
+
+        ManagedConnection(Connection connection, ConnectionPool pool) {
+            this.connection = connection;
+            this.pool = pool;
+        }
+
+        private void bind(Thread thread, boolean traceStack) {
+            this.owner = new WeakReference<>(thread);
+            this.ownerId = thread.getId();
+            this.ownerName = thread.getName();
+            this.acquiredAt = System.currentTimeMillis();
+            this.acquiredStack = traceStack ? new Throwable("Connection acquired by thread " + thread.getName()) : null;
+            this.leakReported = false;
+            this.depth = 0;
+            this.pinned = false;
+            this.cursors = 0;
+            this.txDepth = 0;
+            this.afterTransaction = null;
+        }
+
+        void touch() {
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * 所属线程是否已经结束
+         *
+         * @return
+         */
+        public boolean isOwnerDead() {
+            Thread thread = owner == null ? null : owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        private boolean isOwnedBy(Thread thread) {
+            WeakReference<Thread> owner = this.owner;
+            return owner != null && owner.get() == thread;
+        }
+
+        void closeQuietly() {
+            // 链接池丢弃、回收空闲链接或者关闭时，先关闭缓存的语句
+            if (statements != null) {
+                statements.clear();
+                statements = null;
+            }
+            try {
+                if (!connection.isClosed()) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                log.warn("Close connection failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * 当前线程的链接，O(1) 获取
+     */
+    private final ThreadLocal<ManagedConnection> local = new ThreadLocal<>();
+
+    /**
+     * 所有线程的链接，key 为线程 id，用于后台回收与泄漏检测
+     */
+    private final Map<Long, ManagedConnection> registry = new ConcurrentHashMap<>();
+
+    /**
+     * 未关闭的游标，用于后台回收被丢弃的游标与泄漏检测
+     */
+    private final Set<Cursor> cursors = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 后台回收间隔，单位毫秒
+     */
+    @Getter
+    @Setter
+    private volatile long reapInterval = 10_000;
+
+    /**
+     * 链接占用超过该时长则报告泄漏，单位毫秒。小于等于 0 表示不检测
+     */
+    @Getter
+    @Setter
+    private volatile long leakThreshold = 0;
+
+    /**
+     * 链接池，为 null 时每个线程独占一个链接直到线程结束
+     */
+    @Getter
+    @Setter
+    private volatile ConnectionPool pool;
+
+    /**
+     * 每个链接缓存的 PreparedStatement 数量，小于等于 0 表示不缓存
+     */
+    @Getter
+    @Setter
+    private volatile int statementCacheSize = 64;
+
+    private final LongAdder statementCacheHits = new LongAdder();
+
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    private volatile ScheduledExecutorService reaper;
+
+    /**
+     * 获取当前线程唯一链接。池化模式下链接会一直绑定在当前线程，直到调用 releaseConnection 或者线程结束
+     *
+     * @return
+     * @throws SQLException
+     */
+    public Connection getConnection() throws SQLException {
+        for (;;) {
+            ManagedConnection mc = current();
+            synchronized (mc) {
+                if (mc.isOwnedBy(Thread.currentThread())) {
+                    mc.pinned = true;
+                    return mc.connection;
+                }
+            }
+        }
+    }
+
+    /**
+     * 开始一次操作，取得当前线程的链接。必须与 close 成对调用
+     *
+     * @return
+     * @throws SQLException
+     */
+    public Connection open() throws SQLException {
+        for (;;) {
+            ManagedConnection mc = current();
+            synchronized (mc) {
+                // 检查与占用之间链接可能被其它线程关闭游标时归还，重新获取
+                if (mc.isOwnedBy(Thread.currentThread())) {
+                    mc.depth++;
+                    return mc.connection;
+                }
+            }
+        }
+    }
+
+    /**
+     * 结束一次操作。池化模式下最外层操作结束且没有未关闭的游标时链接归还链接池
+     */
+    public void close() {
+        ManagedConnection mc = bound();
+        if (mc == null) {
+            return;
+        }
+        synchronized (mc) {
+            if (mc.depth > 0) {
+                mc.depth--;
+            }
+            mc.touch();
+            if (mc.depth == 0 && !mc.pinned && mc.cursors == 0 && mc.pool != null) {
+                unbind(mc);
+                mc.pool.giveBack(mc);
+            }
+        }
+    }
+
+    /**
+     * 在当前线程的链接上打开游标，链接在游标关闭前不会归还。游标可以在任意线程关闭
+     *
+     * @param holder 使用游标的对象，没有关闭游标就被回收时由后台线程关闭游标
+     * @return
+     * @throws SQLException
+     */
+    public Cursor openCursor(Object holder) throws SQLException {
+        for (;;) {
+            ManagedConnection mc = current();
+            synchronized (mc) {
+                if (mc.isOwnedBy(Thread.currentThread())) {
+                    mc.cursors++;
+                    Cursor cursor = new Cursor(mc, holder, leakThreshold > 0);
+                    cursors.add(cursor);
+                    return cursor;
+                }
+            }
+        }
+    }
+
+    /**
+     * 占用链接的游标，记录所用的链接与需要一起关闭的结果集、语句
+     */
+    public class Cursor implements AutoCloseable {
+        private final ManagedConnection mc;
+        /**
+         * 弱引用，不影响使用者被回收
+         */
+        private final WeakReference<Object> holder;
+        private final long openedAt = System.currentTimeMillis();
+        private final Throwable openedStack;
+        private final List<AutoCloseable> resources = new ArrayList<>(2);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean leakReported;
+
+        private Cursor(ManagedConnection mc, Object holder, boolean traceStack) {
+            this.mc = mc;
+            this.holder = new WeakReference<>(holder);
+            this.openedStack = traceStack ? new Throwable("Cursor opened by thread " + Thread.currentThread().getName()) : null;
+        }
+
+        public Connection getConnection() {
+            return mc.connection;
+        }
+
+        /**
+         * 登记游标关闭时需要关闭的资源，按登记的相反顺序关闭
+         *
+         * @param <T>
+         * @param resource
+         * @return
+         */
+        public synchronized <T extends AutoCloseable> T register(T resource) {
+            resources.add(resource);
+            return resource;
+        }
+
+        /**
+         * 关闭登记的资源，结束对链接的占用。重复调用无效
+         */
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            cursors.remove(this);
+            synchronized (this) {
+                for (int i = resources.size() - 1; i >= 0; i--) {
+                    try {
+                        resources.get(i).close();
+                    } catch (Exception e) {
+                        log.warn("Close cursor failed: " + e);
+                    }
+                }
+                resources.clear();
+            }
+            release(mc);
+        }
+    }
+
+    /**
+     * 游标关闭后结束对链接的占用，可能在其它线程调用，因此操作的是游标记录的链接而不是当前线程的链接
+     *
+     * @param mc
+     */
+    private void release(ManagedConnection mc) {
+        synchronized (mc) {
+            mc.cursors--;
+            mc.touch();
+            if (mc.cursors > 0 || registry.get(mc.ownerId) != mc) {
+                return;
+            }
+            if (mc.isOwnerDead()) {
+                // 所属线程已经结束，后台线程因为游标未关闭没有回收
+                registry.remove(mc.ownerId, mc);
+                if (mc.pool != null) {
+                    mc.pool.discard(mc);
+                } else {
+                    mc.closeQuietly();
+                }
+            } else if (mc.depth == 0 && !mc.pinned && mc.pool != null) {
+                // 所属线程的 ThreadLocal 在下次使用时发现链接已经归还
+                registry.remove(mc.ownerId, mc);
+                if (mc.isOwnedBy(Thread.currentThread())) {
+                    local.remove();
+                }
+                mc.owner = null;
+                mc.pool.giveBack(mc);
+            }
+        }
+    }
+
+    /**
+     * 在当前线程的链接上准备语句，优先使用缓存。必须在 open 与 close 之间调用，用完通过 closeStatement 归还
+     *
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        ManagedConnection mc = bound();
+        if (mc == null) {
+            throw new SQLException("No connection bound to current thread, call open() first");
+        }
+        if (statementCacheSize > 0) {
+            if (mc.statements == null) {
+                mc.statements = new StatementCache(statementCacheSize);
+            }
+            PreparedStatement ps = mc.statements.take(sql);
+            if (ps != null && !ps.isClosed()) {
+                statementCacheHits.increment();
+                return ps;
+            }
+            statementCacheMisses.increment();
+        }
+        return mc.connection.prepareStatement(sql);
+    }
+
+    /**
+     * 归还语句，reuse 为 false 或者没有开启缓存时直接关闭
+     *
+     * @param sql
+     * @param ps
+     * @param reuse
+     */
+    public void closeStatement(String sql, PreparedStatement ps, boolean reuse) {
+        ManagedConnection mc = bound();
+        try {
+            if (reuse && mc != null && mc.statements != null && !ps.isClosed()) {
+                ps.clearParameters();
+                mc.statements.giveBack(sql, ps);
+            } else {
+                ps.close();
+            }
+        } catch (SQLException e) {
+            log.warn("Close statement failed: " + e);
+        }
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    /**
+     * 在事务中执行，成功提交，异常回滚。嵌套调用通过 savepoint 实现，内层异常只回滚到内层开始处
+     *
+     * @param <R>
+     * @param work
+     * @return
+     * @throws Exception
+     */
+    public <R> R transaction(Callable<R> work) throws Exception {
+        Connection conn = open();
+        ManagedConnection mc = bound();
+        boolean outermost = mc.txDepth == 0;
+        boolean autoCommit = true;
+        Savepoint savepoint = null;
+        try {
+            if (outermost) {
+                autoCommit = conn.getAutoCommit();
+                if (autoCommit) {
+                    conn.setAutoCommit(false);
+                }
+            } else {
+                savepoint = conn.setSavepoint();
+            }
+
+            mc.txDepth++;
+            R result;
+            try {
+                result = work.call();
+            } catch (Exception | Error e) {
+                mc.txDepth--;
+                try {
+                    if (outermost) {
+                        conn.rollback();
+                    } else {
+                        conn.rollback(savepoint);
+                    }
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            }
+            mc.txDepth--;
+
+            if (outermost) {
+                try {
+                    conn.commit();
+                } catch (SQLException e) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException rollbackError) {
+                        e.addSuppressed(rollbackError);
+                    }
+                    throw e;
+                }
+            } else {
+                try {
+                    conn.releaseSavepoint(savepoint);
+                } catch (SQLException e) {
+                    // 部分驱动不支持释放 savepoint，事务结束时会一并释放
+                }
+            }
+            return result;
+        } finally {
+            try {
+                if (outermost && autoCommit && !conn.isClosed()) {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                log.warn("Restore autoCommit failed: " + e);
+            } finally {
+                List<Runnable> callbacks = outermost ? mc.afterTransaction : null;
+                if (outermost) {
+                    mc.afterTransaction = null;
+                }
+                close();
+                runAfterTransaction(callbacks);
+            }
+        }
+    }
+
+    /**
+     * 当前线程处于事务中时，在最外层事务结束（提交或回滚）后执行；否则立即执行。用于事务结束后清理缓存等
+     *
+     * @param action
+     */
+    public void afterTransaction(Runnable action) {
+        ManagedConnection mc = bound();
+        if (mc == null || mc.txDepth == 0) {
+            action.run();
+            return;
+        }
+        if (mc.afterTransaction == null) {
+            mc.afterTransaction = new ArrayList<>();
+        }
+        mc.afterTransaction.add(action);
+    }
+
+    private static void runAfterTransaction(List<Runnable> callbacks) {
+        if (callbacks == null) {
+            return;
+        }
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                log.warn("After transaction callback failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * 当前线程是否处于事务中
+     *
+     * @return
+     */
+    public boolean inTransaction() {
+        ManagedConnection mc = bound();
+        return mc != null && mc.txDepth > 0;
+    }
+
+    /**
+     * 当前线程是否已经绑定链接
+     *
+     * @return
+     */
+    public boolean isBound() {
+        return bound() != null;
+    }
+
+    /**
+     * 释放当前线程的链接，池化链接归还链接池，否则关闭链接。有未关闭的游标时，池化链接在游标关闭后归还
+     */
+    public void releaseConnection() {
+        ManagedConnection mc = bound();
+        if (mc != null) {
+            synchronized (mc) {
+                if (mc.cursors > 0) {
+                    mc.pinned = false;
+                    return;
+                }
+                unbind(mc);
+                if (mc.pool != null) {
+                    mc.pool.giveBack(mc);
+                } else {
+                    mc.closeQuietly();
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前线程绑定的链接，没有返回 null。游标在其它线程关闭时链接可能已经归还，此时解除绑定
+     *
+     * @return
+     */
+    private ManagedConnection bound() {
+        ManagedConnection mc = local.get();
+        if (mc != null && !mc.isOwnedBy(Thread.currentThread())) {
+            local.remove();
+            return null;
+        }
+        return mc;
+    }
+
+    /**
+     * 当前线程绑定的链接，没有则获取一个新的链接并绑定
+     *
+     * @return
+     * @throws SQLException
+     */
+    private ManagedConnection current() throws SQLException {
+        ManagedConnection mc = bound();
+        if (mc != null && !mc.connection.isClosed()) {
+            return mc;
+        }
+
+        Thread thread = Thread.currentThread();
+        if (mc != null) {
+            unbind(mc);
+            if (mc.pool != null) {
+                mc.pool.discard(mc);
+            }
+        }
+
+        ConnectionPool pool = this.pool;
+        if (pool != null) {
+            mc = pool.borrow();
+        } else {
+            DataSource dataSource = DB.use().getDataSource();
+            mc = new ManagedConnection(dataSource.getConnection(), null);
+        }
+        mc.bind(thread, leakThreshold > 0);
+        local.set(mc);
+        registry.put(thread.getId(), mc);
+        startReaper();
+        return mc;
+    }
+
+    private void unbind(ManagedConnection mc) {
+        local.remove();
+        registry.remove(Thread.currentThread().getId(), mc);
+    }
+
+    /**
+     * 当前被线程占用的链接数
+     *
+     * @return
+     */
+    public int size() {
+        return registry.size();
+    }
+
+    private void startReaper() {
+        if (reaper == null) {
+            synchronized (this) {
+                if (reaper == null) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "rider-data-connection-reaper");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    reaper = executor;
+                    scheduleReap();
+                }
+            }
+        }
+    }
+
+    private void scheduleReap() {
+        reaper.schedule(() -> {
+            try {
+                reap();
+            } finally {
+                scheduleReap();
+            }
+        }, reapInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 回收被丢弃的游标与已结束线程的链接，报告疑似泄漏的链接与游标，关闭链接池中空闲过久的链接
+     */
+    void reap() {
+        long now = System.currentTimeMillis();
+        for (Cursor cursor : cursors) {
+            if (cursor.holder.get() == null) {
+                log.warn("Cursor opened by thread " + cursor.mc.ownerName + " was not closed, reclaimed", cursor.openedStack);
+                cursor.close();
+            } else if (leakThreshold > 0 && !cursor.leakReported && now - cursor.openedAt > leakThreshold) {
+                cursor.leakReported = true;
+                log.warn("Cursor opened by thread " + cursor.mc.ownerName + " for " + (now - cursor.openedAt) + " ms, possible leak", cursor.openedStack);
+            }
+        }
+
+        registry.forEach((id, mc) -> {
+            try {
+                if (mc.isOwnerDead() || mc.connection.isClosed()) {
+                    synchronized (mc) {
+                        // 游标可能交给其它线程读取，关闭游标时再回收
+                        if (mc.cursors > 0 && !mc.connection.isClosed()) {
+                            return;
+                        }
+                    }
+                    if (registry.remove(id, mc)) {
+                        // 线程结束时链接状态未知，不再复用
+                        if (mc.pool != null) {
+                            mc.pool.discard(mc);
+                        } else {
+                            mc.closeQuietly();
+                        }
+                        log.debug("Reaped connection of thread: " + mc.ownerName);
+                    }
+                } else if (leakThreshold > 0 && !mc.leakReported && now - mc.acquiredAt > leakThreshold) {
+                    mc.leakReported = true;
+                    log.warn("Connection held by thread " + mc.ownerName + " for " + (now - mc.acquiredAt) + " ms, possible leak", mc.acquiredStack);
+                }
+            } catch (Exception e) {
+                log.warn("Reap connection failed: " + e);
+            }
+        });
+
+        ConnectionPool pool = this.pool;
+        if (pool != null) {
+            pool.evictIdle();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package net.ninx.rider.data.manager;
+
+import java.sql.SQLException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import net.ninx.rider.data.DB;
+import net.ninx.rider.data.manager.ConnectionManager.ManagedConnection;
+
+/**
+ * 有界链接池
+ *
+ * 链接总数由信号量限制，空闲链接放在无锁的双端队列中，后进先出，优先复用最近使用过的链接。只有空闲超过 validationInterval 的链接在借出前才会做有效性检测
+ */
+@Slf4j
+@Accessors(chain = true)
+public class ConnectionPool {
+
+    /**
+     * 最大链接数
+     */
+    @Getter
+    private final int maxSize;
+
+    /**
+     * 借出链接的最长等待时间，单位毫秒
+     */
+    @Getter
+    @Setter
+    private volatile long borrowTimeout = 30_000;
+
+    /**
+     * 空闲超过该时长的链接在借出前需要校验，单位毫秒
+     */
+    @Getter
+    @Setter
+    private volatile long validationInterval = 30_000;
+
+    /**
+     * 校验超时时间，单位秒
+     */
+    @Getter
+    @Setter
+    private volatile int validationTimeout = 3;
+
+    /**
+     * 空闲超过该时长的链接会被关闭，单位毫秒。小于等于 0 表示不关闭
+     */
+    @Getter
+    @Setter
+    private volatile long idleTimeout = 600_000;
+
+    private final Semaphore permits;
+
+    private final Deque<ManagedConnection> idle = new ConcurrentLinkedDeque<>();
+
+    private ConnectionPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize);
+    }
+
+    public static ConnectionPool of(int maxSize) {
+        return new ConnectionPool(maxSize);
+    }
+
+    /**
+     * 借出一个链接
+     *
+     * @return
+     * @throws SQLException
+     */
+    ManagedConnection borrow() throws SQLException {
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Connection pool exhausted, maxSize: " + maxSize + ", waited " + borrowTimeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for connection", e);
+        }
+
+        try {
+            ManagedConnection mc;
+            while ((mc = idle.pollFirst()) != null) {
+                if (isAlive(mc)) {
+                    return mc;
+                }
+                mc.closeQuietly();
+            }
+            return new ManagedConnection(DB.use().getDataSource().getConnection(), this);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还链接
+     *
+     * @param mc
+     */
+    void giveBack(ManagedConnection mc) {
+        try {
+            if (mc.getConnection().isClosed()) {
+                return;
+            }
+            if (!mc.getConnection().getAutoCommit()) {
+                mc.getConnection().rollback();
+                mc.getConnection().setAutoCommit(true);
+            }
+            mc.touch();
+            idle.offerFirst(mc);
+        } catch (SQLException e) {
+            log.warn("Return connection failed, discard it: " + e);
+            mc.closeQuietly();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 丢弃链接，链接会被关闭
+     *
+     * @param mc
+     */
+    void discard(ManagedConnection mc) {
+        mc.closeQuietly();
+        permits.release();
+    }
+
+    /**
+     * 关闭空闲过久的链接
+     */
+    void evictIdle() {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (ManagedConnection mc : idle) {
+            if (now - mc.getLastUsed() > idleTimeout && idle.remove(mc)) {
+                mc.closeQuietly();
+            }
+        }
+    }
+
+    private boolean isAlive(ManagedConnection mc) {
+        try {
+            if (mc.getConnection().isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - mc.getLastUsed() > validationInterval) {
+                return mc.getConnection().isValid(validationTimeout);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 空闲链接数
+     *
+     * @return
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * 借出中的链接数
+     *
+     * @return
+     */
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * 关闭所有空闲链接
+     */
+    public void close() {
+        ManagedConnection mc;
+        while ((mc = idle.pollFirst()) != null) {
+            mc.closeQuietly();
+        }
+    }
+}
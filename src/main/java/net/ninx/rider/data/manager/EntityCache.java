@@ -0,0 +1,226 @@
+package net.ninx.rider.data.manager;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.RequiredArgsConstructor;
+import net.ninx.rider.data.manager.TableManager.TableColumnConfig;
+
+/**
+ * 按 id 缓存的实体，最近最少使用淘汰，超过 ttl 过期
+ *
+ * 按 id 分段加锁，每段是一个按访问顺序排列的 LinkedHashMap。存入与取出时都会复制实体，调用方修改结果不会影响缓存
+ */
+public class EntityCache {
+
+    private static final int SEGMENTS = 16;
+
+    /**
+     * 失效计数的条数，2 的幂
+     */
+    private static final int STRIPES = 1024;
+
+    private final Segment[] segments;
+
+    private final long ttl;
+
+    private final MethodHandle constructor;
+
+    private final List<TableColumnConfig> columns;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 按 id 分条的失效次数，读取数据库前记录，存入时如果同一条上期间发生过失效则放弃存入，避免旧数据覆盖。写入只影响同一条上的 id
+     */
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+
+    @RequiredArgsConstructor
+    private static class CachedEntity {
+        private final Object value;
+        private final long expireAt;
+    }
+
+    private class Segment extends LinkedHashMap<Long, CachedEntity> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedEntity> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    EntityCache(Class<?> type, List<TableColumnConfig> columns, int maxSize, long ttl) {
+        this.columns = columns;
+        this.ttl = ttl;
+        try {
+            this.constructor = MethodHandles.lookup().unreflectConstructor(type.getDeclaredConstructor()).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException("Entity cache needs a public no-arg constructor: " + type.getName(), e);
+        }
+        int count = Math.max(1, Math.min(SEGMENTS, maxSize / 16));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(Math.max(1, maxSize / count));
+        }
+    }
+
+    private Segment segment(Long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return segments[(int) ((h >>> 32) % segments.length)];
+    }
+
+    private static int stripe(Long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> (Long.SIZE - Integer.numberOfTrailingZeros(STRIPES)));
+    }
+
+    /**
+     * 获取缓存的实体副本，没有或者已过期返回 null
+     *
+     * @param id
+     * @return
+     */
+    public Object get(Long id) {
+        Segment segment = segment(id);
+        CachedEntity entry;
+        synchronized (segment) {
+            entry = segment.get(id);
+            if (entry != null && entry.expireAt <= System.currentTimeMillis()) {
+                segment.remove(id);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy(entry.value);
+    }
+
+    /**
+     * 读取数据库前获取，存入该 id 时传入
+     *
+     * @param id
+     * @return
+     */
+    public long stamp(Long id) {
+        return invalidations.get(stripe(id));
+    }
+
+    /**
+     * 存入实体副本。stamp 之后该 id 所在的条上发生过失效则不存入
+     *
+     * @param id
+     * @param value
+     * @param stamp
+     */
+    public void put(Long id, Object value, long stamp) {
+        if (id == null || value == null) {
+            return;
+        }
+        CachedEntity entry = new CachedEntity(copy(value), System.currentTimeMillis() + ttl);
+        Segment segment = segment(id);
+        synchronized (segment) {
+            if (invalidations.get(stripe(id)) == stamp) {
+                segment.put(id, entry);
+            }
+        }
+    }
+
+    /**
+     * 失效一个实体
+     *
+     * @param id
+     */
+    public void invalidate(Long id) {
+        if (id == null) {
+            return;
+        }
+        Segment segment = segment(id);
+        synchronized (segment) {
+            invalidations.incrementAndGet(stripe(id));
+            segment.remove(id);
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            invalidations.incrementAndGet(i);
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 复制所有列，Date 会复制一个新的对象
+     *
+     * @param source
+     * @return
+     */
+    private Object copy(Object source) {
+        try {
+            Object target = (Object) constructor.invokeExact();
+            for (TableColumnConfig column : columns) {
+                Object value = column.value(source);
+                column.set(target, value instanceof Date ? ((Date) value).clone() : value);
+            }
+            return target;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -4,18 +4,27 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.fastjson.JSON;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.convert.BasicType;
 import cn.hutool.core.util.ClassUtil;
-import cn.hutool.core.util.ReUtil;
+import cn.hutool.core.util.ReflectUtil;
 import cn.hutool.core.util.TypeUtil;
 import net.ninx.rider.data.DB;
 import net.ninx.rider.data.annotations.Mapper;
 import net.ninx.rider.data.annotations.Param;
 import net.ninx.rider.data.annotations.Sql;
 import net.ninx.rider.data.utils.SqlUtil;
+import net.ninx.rider.data.utils.SqlUtil.ParsedSql;
 import net.ninx.rider.data.utils.SqlUtil.SqlMap;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
@@ -29,9 +38,327 @@ public class MapperManager {
         public Object execute(Object proxy, Method method, Object[] args) throws Throwable;
     }
 
+    private static interface SqlRunner {
+        public Object run(String sql, List<Object> sqlParams) throws Exception;
+    }
+
+    /**
+     * mapper 方法的执行计划，启动时根据注解与方法签名生成一次，调用时只需绑定参数
+     */
+    @Getter
+    public static class MapperMethod {
+        private final Method method;
+        private final String sqlTemplate;
+        private final Sql.SqlType type;
+        private final String resultMap;
+        /**
+         * 模板参数名，未使用 @Param 时为 p0, p1 ...
+         */
+        private final String[] paramNames;
+        /**
+         * 查询结果类型，返回 List 时为元素类型
+         */
+        private final Class<?> resultType;
+        private final boolean returnList;
+        private final SqlRunner runner;
+        /**
+         * 静态模板在生成计划时即完成解析
+         */
+        private final SqlBinding staticBinding;
+        /**
+         * 动态模板按渲染后的sql缓存解析结果
+         */
+        private final Map<String, SqlBinding> dynamicBindings = new ConcurrentHashMap<>();
+        /**
+         * 是否缓存查询结果
+         */
+        private final boolean cached;
+        private final long cacheTtl;
+        /**
+         * 注解中声明的表，为 null 时从sql中解析
+         */
+        private final String[] cacheTables;
+
+        private MapperMethod(Method method) {
+            Sql anno = method.getAnnotation(Sql.class);
+            this.method = method;
+            this.sqlTemplate = anno.value();
+            this.type = anno.type();
+            this.resultMap = anno.resultMap();
+
+            Parameter[] params = method.getParameters();
+            this.paramNames = new String[params.length];
+            for (int i = 0; i < params.length; i++) {
+                paramNames[i] = params[i].isAnnotationPresent(Param.class) ? params[i].getAnnotation(Param.class).value() : "p" + i;
+            }
+
+            this.returnList = List.class.isAssignableFrom(method.getReturnType());
+            // 返回基本类型时按包装类型查询，由调用方拆箱
+            this.resultType = returnList ? elementType(method) : BasicType.wrap(method.getReturnType());
+            this.runner = chooseRunner();
+            this.staticBinding = SqlUtil.isStatic(sqlTemplate) ? new SqlBinding(SqlUtil.parse(sqlTemplate), paramNames) : null;
+
+            this.cached = anno.cache() && type == Sql.SqlType.select;
+            this.cacheTtl = anno.cacheTtl();
+            this.cacheTables = anno.tables().length == 0 ? null : Arrays.stream(anno.tables()).map(QueryCacheManager::normalize).toArray(String[]::new);
+            if (cached) {
+                QueryCacheManager.enable();
+            }
+        }
+
+        /**
+         * List 的元素类型，List<Map<String, Object>> 取 Map，没有泛型参数时为 Map
+         *
+         * @param method
+         * @return
+         */
+        private static Class<?> elementType(Method method) {
+            Class<?> clazz = TypeUtil.getClass(TypeUtil.getTypeArgument(TypeUtil.getReturnType(method)));
+            return clazz == null ? Map.class : clazz;
+        }
+
+        private SqlRunner chooseRunner() {
+            if (method.getReturnType() == Void.class) {
+                return (sql, sqlParams) -> {
+                    DB.use().execute(sql, sqlParams);
+                    return null;
+                };
+            }
+            switch (type) {
+                case insert:
+                case update:
+                case delete:
+                case execute:
+                    return (sql, sqlParams) -> DB.use().execute(sql, sqlParams);
+                case select:
+                    if (returnList) {
+                        return (sql, sqlParams) -> DB.use().queryList(sql, resultType, resultMap, sqlParams);
+                    } else {
+                        return (sql, sqlParams) -> DB.use().query(sql, resultType, resultMap, sqlParams);
+                    }
+                default:
+                    return (sql, sqlParams) -> null;
+            }
+        }
+
+        /**
+         * 绑定参数并执行
+         *
+         * @param args
+         * @return
+         * @throws Exception
+         */
+        public Object invoke(Object[] args) throws Exception {
+            SqlBinding binding = staticBinding;
+            if (binding == null) {
+                // 获取模板参数
+                SqlMap<String, Object> sqlMap = SqlUtil.NewSqlMap();
+                for (int i = 0; i < paramNames.length; i++) {
+                    sqlMap.put(paramNames[i], args[i]);
+                }
+
+                // 根据模板生成sql，相同形状的sql复用解析结果
+                String sql = SqlUtil.sql(sqlTemplate, sqlMap);
+                binding = dynamicBindings.get(sql);
+                if (binding == null) {
+                    binding = new SqlBinding(SqlUtil.parse(sql), paramNames);
+                    if (dynamicBindings.size() < MAX_DYNAMIC_BINDINGS) {
+                        dynamicBindings.put(sql, binding);
+                    }
+                }
+            }
+
+            // 执行sql，事务中可能读到未提交的数据，不使用缓存
+            if (!cached || DB.use().getConnectionManager().inTransaction()) {
+                return runner.run(binding.sql, binding.params(args));
+            }
+            return runCached(binding, binding.params(args));
+        }
+
+        private Object runCached(SqlBinding binding, List<Object> params) throws Exception {
+            String[] tables = cacheTables != null ? cacheTables : binding.readTables();
+            if (tables == null) {
+                // 无法解析涉及的表，不缓存
+                return runner.run(binding.sql, params);
+            }
+            String key = method.toString() + "\n" + binding.sql + "\n" + JSON.toJSONString(params);
+            Object result = QueryCacheManager.get(key);
+            if (result != null) {
+                return result;
+            }
+            long[] stamp = QueryCacheManager.stamp(tables);
+            result = runner.run(binding.sql, params);
+            QueryCacheManager.put(key, result, tables, stamp, cacheTtl);
+            return result;
+        }
+    }
+
+    /**
+     * 动态模板每个方法最多缓存的sql形状数
+     */
+    private static final int MAX_DYNAMIC_BINDINGS = 256;
+
+    /**
+     * 解析后的sql，以及每个 ? 的取值方式
+     */
+    private static class SqlBinding {
+        private final String sql;
+        private final PropertyAccessor[] accessors;
+        /**
+         * 查询涉及的表，开启缓存时首次使用解析。无法解析时为 null
+         */
+        private volatile String[] readTables;
+
+        private volatile boolean readTablesParsed;
+
+        private SqlBinding(ParsedSql parsed, String[] paramNames) {
+            this.sql = parsed.getSql();
+            String[] placeholders = parsed.getPlaceholders();
+            this.accessors = new PropertyAccessor[placeholders.length];
+            for (int i = 0; i < placeholders.length; i++) {
+                accessors[i] = new PropertyAccessor(placeholders[i], paramNames);
+            }
+        }
+
+        private String[] readTables() {
+            if (!readTablesParsed) {
+                readTables = QueryCacheManager.parseReadTables(sql);
+                readTablesParsed = true;
+            }
+            return readTables;
+        }
+
+        private List<Object> params(Object[] args) {
+            List<Object> params = new ArrayList<>(accessors.length);
+            for (PropertyAccessor accessor : accessors) {
+                params.add(accessor.get(args));
+            }
+            return params;
+        }
+    }
+
+    /**
+     * #{a.b.c} 的取值方式。a 在解析时对应到方法参数的下标，b、c 按值的类型缓存 getter
+     */
+    private static class PropertyAccessor {
+        private final int argIndex;
+        private final String[] path;
+        /**
+         * 每段属性最近一次使用的 getter，类型与 getter 成对替换，多线程下不会读到不一致的组合
+         */
+        private final CachedGetter[] getters;
+
+        @RequiredArgsConstructor
+        private static class CachedGetter {
+            private final Class<?> type;
+            private final Method getter;
+        }
+
+        private PropertyAccessor(String property, String[] paramNames) {
+            String[] segments = property.split("\\.");
+            int index = -1;
+            for (int i = 0; i < paramNames.length; i++) {
+                if (paramNames[i].equals(segments[0])) {
+                    index = i;
+                    break;
+                }
+            }
+            this.argIndex = index;
+            this.path = Arrays.copyOfRange(segments, 1, segments.length);
+            this.getters = new CachedGetter[path.length];
+        }
+
+        private Object get(Object[] args) {
+            if (argIndex < 0) {
+                return null;
+            }
+            Object value = args[argIndex];
+            for (int i = 0; i < path.length && value != null; i++) {
+                value = read(i, value);
+            }
+            return value;
+        }
+
+        private Object read(int i, Object target) {
+            if (target instanceof Map) {
+                return ((Map<?, ?>) target).get(path[i]);
+            }
+            CachedGetter cached = getters[i];
+            if (cached == null || cached.type != target.getClass()) {
+                cached = new CachedGetter(target.getClass(), BeanUtil.getBeanDesc(target.getClass()).getGetter(path[i]));
+                getters[i] = cached;
+            }
+            return cached.getter == null ? BeanUtil.getFieldValue(target, path[i]) : ReflectUtil.invoke(target, cached.getter);
+        }
+    }
+
+    /**
+     * 所有 mapper 方法的执行计划
+     */
+    private static final Map<Method, MapperMethod> methods = new ConcurrentHashMap<>();
+
+    /**
+     * 获取方法的执行计划，没有 @Sql 注解返回 null
+     *
+     * @param method
+     * @return
+     */
+    public static MapperMethod getMapperMethod(Method method) {
+        MapperMethod mapperMethod = methods.get(method);
+        if (mapperMethod == null && method.isAnnotationPresent(Sql.class)) {
+            mapperMethod = new MapperMethod(method);
+            methods.put(method, mapperMethod);
+        }
+        return mapperMethod;
+    }
+
+    /**
+     * 获取方法的执行计划，供编译期生成的 mapper 实现类使用
+     *
+     * @param clazz          声明方法的类
+     * @param name
+     * @param parameterTypes
+     * @return
+     */
+    public static MapperMethod getMapperMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return getMapperMethod(clazz.getDeclaredMethod(name, parameterTypes));
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 编译期生成的 mapper 实现类的后缀，见 MapperProcessor
+     */
+    public static final String IMPL_SUFFIX = "_RiderImpl";
+
+    /**
+     * 创建编译期生成的实现类，没有生成时返回 null
+     *
+     * @param clazz
+     * @return
+     */
+    private static Object newGeneratedInstance(Class<?> clazz) {
+        String implName = clazz.getName() + IMPL_SUFFIX;
+        try {
+            // 初始化时获取执行计划，实现类过期（如方法签名已修改）时抛出 ExceptionInInitializerError
+            Class<?> implClass = Class.forName(implName, true, clazz.getClassLoader());
+            if (!clazz.isAssignableFrom(implClass)) {
+                return null;
+            }
+            return implClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("Create generated mapper " + implName + " failed, use cglib proxy: " + (e.getCause() != null ? e.getCause() : e));
+            return null;
+        }
+    }
+
     /**
      * cglib 动态代理抽象类 https://github.com/cglib/cglib/tree/master/cglib-sample
-     * 
+     *
      * @param clazz
      * @param executor
      * @return
@@ -58,59 +385,24 @@ public class MapperManager {
             if (clazz.isAnnotationPresent(Mapper.class) && ClassUtil.isAbstract(clazz)) {
                 log.debug("Find mapper: " + clazz);
 
-                Object mapperObj = newInstance(clazz, (proxy, method, args) -> {
-                    if (method.isAnnotationPresent(Sql.class)) {
-                        Sql anno = method.getAnnotation(Sql.class);
-
-                        // 获取模板参数
-                        Parameter[] params = method.getParameters();
-                        SqlMap<String, Object> sqlMap = SqlUtil.NewSqlMap();
-                        for (int i = 0; i < params.length; i++) {
-                            String paramName = "p" + i;
-                            if (params[i].isAnnotationPresent(Param.class)) {
-                                paramName = params[i].getAnnotation(Param.class).value();
-                            }
-                            sqlMap.put(paramName, args[i]);
-                        }
-
-                        // 根据模板生成sql
-                        String sqlFtl = anno.value();
-                        String sql = SqlUtil.sql(sqlFtl, sqlMap);
-                        final List<Object> sqlParams = new ArrayList<>();
-
-                        // 替换sql注入参数
-                        sql = ReUtil.replaceAll(sql, "#\\{([A-Za-z_0-9]+)\\}", (matcher) -> {
-                            String prop = matcher.group(1);
-                            Object t = BeanUtil.getProperty(sqlMap, prop);
-                            // if (t == null) {
-                            //     log.info("Notice that: #{" + prop + "} is matched with null from params or not matched.");
-                            // }
-                            sqlParams.add(t);
-                            return "?";
-                        });
-
-                        // 执行sql
-                        if (method.getReturnType() == Void.class) {
-                            DB.use().execute(sql, sqlParams);
-                            return null;
-                        } else {
-                            switch (anno.type()) {
-                                case insert:
-                                case update:
-                                case delete:
-                                case execute:
-                                    return DB.use().execute(sql, sqlParams);
-                                case select:
-                                    boolean returnList = List.class.isAssignableFrom(method.getReturnType());
-                                    if (returnList) {
-                                        Class<?> methodReturnBaseType = (Class<?>) TypeUtil.getTypeArgument(TypeUtil.getReturnType(method));
-                                        return DB.use().queryList(sql, methodReturnBaseType, anno.resultMap(), sqlParams);
-                                    } else {
-                                        return DB.use().query(sql, method.getReturnType(), anno.resultMap(), sqlParams);
-                                    }
-                            }
-                            return null;
-                        }
+                // 预先生成执行计划
+                for (Method method : ReflectUtil.getMethods(clazz)) {
+                    if (Modifier.isAbstract(method.getModifiers())) {
+                        getMapperMethod(method);
+                    }
+                }
+
+                // 优先使用编译期生成的实现类
+                Object mapperObj = newGeneratedInstance(clazz);
+                if (mapperObj != null) {
+                    DB.use().addMapper(mapperObj);
+                    return;
+                }
+
+                mapperObj = newInstance(clazz, (proxy, method, args) -> {
+                    MapperMethod mapperMethod = getMapperMethod(method);
+                    if (mapperMethod != null) {
+                        return mapperMethod.invoke(args);
                     } else {
                         log.warn("not sql for method " + method);
                         return null;
@@ -120,4 +412,4 @@ public class MapperManager {
             }
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,429 @@
+package net.ninx.rider.data.manager;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cn.hutool.core.util.ReflectUtil;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import net.ninx.rider.data.DB;
+
+/**
+ * 查询结果缓存，用于 @Sql(cache = true) 的 select 方法
+ *
+ * 每张表维护一个版本号，写入时版本号加一。缓存的结果记录查询时涉及的表的版本号，取出时版本号不一致即失效，因此失效只需要 O(1)。无法识别写入的表时所有结果失效
+ */
+@Slf4j
+public class QueryCacheManager {
+
+    /**
+     * 最多缓存的结果数，按最近使用淘汰
+     */
+    @Getter
+    @Setter
+    private static volatile int maxSize = 1024;
+
+    /**
+     * 是否存在开启缓存的方法，没有时写入不解析sql
+     */
+    private static volatile boolean enabled;
+
+    private static final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * 无法识别写入的表时加一，使所有结果失效
+     */
+    private static final AtomicLong globalVersion = new AtomicLong();
+
+    private static final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 写入sql涉及的表，写入的sql大多是固定的几条
+     */
+    private static final Map<String, String[]> writeTables = new ConcurrentHashMap<>();
+
+    private static final int MAX_WRITE_TABLES = 4096;
+
+    private static final LongAdder hits = new LongAdder();
+
+    private static final LongAdder misses = new LongAdder();
+
+    private static final String NAME = "([^\\s,();]+)";
+
+    /**
+     * from 列表中表名之后不是别名的关键字
+     */
+    private static final Set<String> NOT_ALIAS = new HashSet<>(Arrays.asList("WHERE", "JOIN", "LEFT", "RIGHT", "INNER", "OUTER", "CROSS", "FULL", "NATURAL",
+            "STRAIGHT_JOIN", "ON", "USING", "GROUP", "ORDER", "HAVING", "LIMIT", "OFFSET", "FETCH", "UNION", "EXCEPT", "INTERSECT", "WINDOW", "FOR"));
+
+    private static final Pattern WRITE_PATTERN = Pattern.compile("(?i)^\\s*(?:insert\\s+(?:or\\s+\\w+\\s+)?into|replace\\s+into|merge\\s+into|update|delete\\s+from|truncate\\s+(?:table\\s+)?)\\s*" + NAME);
+
+    @RequiredArgsConstructor
+    private static class CachedResult {
+        private final Object value;
+        private final String[] tables;
+        private final long[] stamp;
+        private final long expireAt;
+    }
+
+    static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * 获取缓存结果的副本，没有、过期或者涉及的表有写入时返回 null
+     *
+     * @param key
+     * @return
+     */
+    public static Object get(String key) {
+        CachedResult cached;
+        synchronized (results) {
+            cached = results.get(key);
+            if (cached != null && (cached.expireAt <= System.currentTimeMillis() || !isCurrent(cached.tables, cached.stamp))) {
+                results.remove(key);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copy(cached.value);
+    }
+
+    /**
+     * 查询前获取涉及的表的版本号，存入结果时传入
+     *
+     * @param tables
+     * @return
+     */
+    public static long[] stamp(String[] tables) {
+        long[] stamp = new long[tables.length + 1];
+        for (int i = 0; i < tables.length; i++) {
+            stamp[i] = version(tables[i]).get();
+        }
+        stamp[tables.length] = globalVersion.get();
+        return stamp;
+    }
+
+    /**
+     * 存入结果的副本。查询期间涉及的表有写入时不存入，null 与无法复制的结果不缓存
+     *
+     * @param key
+     * @param value
+     * @param tables
+     * @param stamp
+     * @param ttl
+     */
+    public static void put(String key, Object value, String[] tables, long[] stamp, long ttl) {
+        if (value == null || !isCurrent(tables, stamp)) {
+            return;
+        }
+        Object copied = copy(value);
+        if (copied == null) {
+            return;
+        }
+        CachedResult cached = new CachedResult(copied, tables, stamp, System.currentTimeMillis() + ttl);
+        synchronized (results) {
+            results.put(key, cached);
+            Iterator<CachedResult> it = results.values().iterator();
+            while (results.size() > maxSize && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 执行写入sql后调用，使写入的表相关的结果失效。事务中写入时事务结束后再失效一次
+     *
+     * @param sql
+     */
+    public static void afterWrite(String sql) {
+        if (!enabled) {
+            return;
+        }
+        String[] tables = writeTables.get(sql);
+        if (tables == null) {
+            tables = parseWriteTables(sql);
+            if (writeTables.size() < MAX_WRITE_TABLES) {
+                writeTables.put(sql, tables);
+            }
+        }
+        String[] target = tables;
+        invalidate(target);
+        ConnectionManager connectionManager = DB.use().getConnectionManager();
+        if (connectionManager.inTransaction()) {
+            connectionManager.afterTransaction(() -> invalidate(target));
+        }
+    }
+
+    /**
+     * 使表相关的结果失效，tables 为空数组时所有结果失效
+     *
+     * @param tables
+     */
+    public static void invalidate(String... tables) {
+        if (tables.length == 0) {
+            globalVersion.incrementAndGet();
+            return;
+        }
+        for (String table : tables) {
+            version(normalize(table)).incrementAndGet();
+        }
+    }
+
+    /**
+     * 清空所有结果
+     */
+    public static void clear() {
+        globalVersion.incrementAndGet();
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    public static int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 解析查询涉及的表，包括 from 列表（from a, b）与 join 之后的表，子查询中的表同样解析。无法完整解析时（如表函数）返回 null，此时不缓存结果
+     *
+     * @param sql
+     * @return
+     */
+    public static String[] parseReadTables(String sql) {
+        List<String> tokens = tokenize(sql);
+        Set<String> tables = new LinkedHashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i).toUpperCase();
+            if (!token.equals("FROM") && !token.equals("JOIN")) {
+                continue;
+            }
+            // join 之后只有一张表，from 之后为逗号分隔的列表
+            int j = i + 1;
+            for (;;) {
+                String item = j < tokens.size() ? tokens.get(j) : null;
+                if (item == null || item.equals(",") || item.equals(")")) {
+                    return null;
+                }
+                if (item.equals("(")) {
+                    // 子查询，其中的表在外层循环中解析
+                    j = closing(tokens, j) + 1;
+                } else if (j + 1 < tokens.size() && tokens.get(j + 1).equals("(")) {
+                    return null;
+                } else {
+                    tables.add(normalize(item));
+                    j++;
+                }
+                j = skipAlias(tokens, j);
+                if (!token.equals("FROM") || j >= tokens.size() || !tokens.get(j).equals(",")) {
+                    break;
+                }
+                j++;
+            }
+        }
+        return tables.toArray(new String[0]);
+    }
+
+    private static int skipAlias(List<String> tokens, int j) {
+        if (j < tokens.size() && tokens.get(j).equalsIgnoreCase("AS")) {
+            return j + 2;
+        }
+        if (j < tokens.size() && !isPunctuation(tokens.get(j)) && !NOT_ALIAS.contains(tokens.get(j).toUpperCase())) {
+            return j + 1;
+        }
+        return j;
+    }
+
+    private static int closing(List<String> tokens, int open) {
+        int depth = 0;
+        for (int j = open; j < tokens.size(); j++) {
+            if (tokens.get(j).equals("(")) {
+                depth++;
+            } else if (tokens.get(j).equals(")") && --depth == 0) {
+                return j;
+            }
+        }
+        return tokens.size();
+    }
+
+    private static boolean isPunctuation(String token) {
+        return token.equals("(") || token.equals(")") || token.equals(",") || token.equals(";");
+    }
+
+    /**
+     * 按空白与括号、逗号分词，跳过字符串与注释
+     *
+     * @param sql
+     * @return
+     */
+    private static List<String> tokenize(String sql) {
+        List<String> tokens = new ArrayList<>();
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                i++;
+                while (i < n && !(sql.charAt(i) == '\'' && (i + 1 >= n || sql.charAt(i + 1) != '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                while (i < n && sql.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+            } else if (isPunctuation(String.valueOf(c))) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(sql.charAt(i)) && "(),;'".indexOf(sql.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(sql.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 解析写入的表，无法识别时返回空数组
+     *
+     * @param sql
+     * @return
+     */
+    static String[] parseWriteTables(String sql) {
+        Matcher matcher = WRITE_PATTERN.matcher(sql);
+        return matcher.find() ? new String[] { normalize(matcher.group(1)) } : new String[0];
+    }
+
+    /**
+     * 去掉引号与 schema，转为大写
+     *
+     * @param table
+     * @return
+     */
+    static String normalize(String table) {
+        String name = table.replaceAll("[`\"\\[\\]]", "");
+        return name.substring(name.lastIndexOf('.') + 1).toUpperCase();
+    }
+
+    private static AtomicLong version(String table) {
+        AtomicLong version = versions.get(table);
+        if (version == null) {
+            version = new AtomicLong();
+            AtomicLong prev = versions.putIfAbsent(table, version);
+            version = prev == null ? version : prev;
+        }
+        return version;
+    }
+
+    private static boolean isCurrent(String[] tables, long[] stamp) {
+        if (stamp[tables.length] != globalVersion.get()) {
+            return false;
+        }
+        for (int i = 0; i < tables.length; i++) {
+            if (stamp[i] != version(tables[i]).get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 复制结果，调用方修改结果不会影响缓存。List、Map 逐个复制元素，其它对象直接复制字段（不依赖 getter、setter）
+     *
+     * 无法如实复制时（没有无参构造方法、有 final 字段）返回 null，此时结果不缓存
+     *
+     * @param value
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        if (value == null || DB.isBaseTypeForSql(value.getClass())) {
+            return value;
+        }
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> copied = new ArrayList<>(list.size());
+            for (Object e : list) {
+                Object c = copy(e);
+                if (c == null && e != null) {
+                    return null;
+                }
+                copied.add(c);
+            }
+            return copied;
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> copied = (Map<Object, Object>) ReflectUtil.newInstanceIfPossible(value.getClass());
+            if (copied == null) {
+                copied = new LinkedHashMap<>();
+            }
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                Object c = copy(e.getValue());
+                if (c == null && e.getValue() != null) {
+                    return null;
+                }
+                copied.put(e.getKey(), c);
+            }
+            return copied;
+        }
+
+        Object copied = ReflectUtil.newInstanceIfPossible(value.getClass());
+        if (copied == null) {
+            return null;
+        }
+        for (Field field : ReflectUtil.getFields(value.getClass())) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            if (Modifier.isFinal(field.getModifiers())) {
+                return null;
+            }
+            Object v = ReflectUtil.getFieldValue(value, field);
+            ReflectUtil.setFieldValue(copied, field, v instanceof Date ? ((Date) v).clone() : v);
+        }
+        return copied;
+    }
+}
@@ -1,10 +1,23 @@
 package net.ninx.rider.data.manager;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import cn.hutool.core.convert.Convert;
 import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.db.handler.HandleHelper;
 import net.ninx.rider.data.DB;
 import net.ninx.rider.data.annotations.Column;
 import net.ninx.rider.data.annotations.QueryResultAlias;
@@ -21,6 +34,20 @@ public class ResultMapManager {
 
     private static Map<String, Map<String, Map<String, Field>>> resultMapContainer = new HashMap<>();
 
+    /**
+     * 将结果集当前行转换为对象
+     */
+    public static interface RowMapper<E> {
+        public E map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * 行转换器缓存，key 为 结果类型、resultMap 与结果集列名
+     */
+    private static final Map<String, RowMapper<?>> rowMappers = new ConcurrentHashMap<>();
+
+    private static final int MAX_ROW_MAPPERS = 4096;
+
     public static void scanResultMaps() {
         DB.use().getClasses().forEach(clazz -> {
             if (clazz.isAnnotationPresent(ResultEntity.class)) {
@@ -77,4 +104,216 @@ public class ResultMapManager {
     public static Map<String, Field> getResultMap(Class<?> clazz, String resultMap) {
         return resultMapContainer.get(clazz.getName()).get(resultMap);
     }
+
+    /**
+     * 获取行转换器。@ResultEntity 按 结果类型、resultMap、结果集列布局 生成一次，之后直接按列下标读取并通过 MethodHandle 赋值
+     * 
+     * @param <E>
+     * @param resultType
+     * @param resultMap
+     * @param meta
+     * @param caseInsensitive
+     * @return
+     * @throws SQLException
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> RowMapper<E> getRowMapper(Class<E> resultType, String resultMap, ResultSetMetaData meta, boolean caseInsensitive) throws SQLException {
+        int columnCount = meta.getColumnCount();
+        if (!resultType.isAnnotationPresent(ResultEntity.class)) {
+            if (DB.isBaseTypeForSql(resultType)) {
+                int type = columnCount == 0 ? Types.NULL : meta.getColumnType(1);
+                return rs -> columnCount == 0 ? null : Convert.convert(resultType, getColumnValue(rs, 1, type));
+            }
+            return rs -> DB.use().caseTo(HandleHelper.handleRow(columnCount, meta, rs, caseInsensitive), resultType, resultMap);
+        }
+
+        StringBuilder key = new StringBuilder(resultType.getName()).append('\0').append(resultMap);
+        String[] labels = new String[columnCount];
+        int[] types = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            labels[i] = meta.getColumnLabel(i + 1);
+            types[i] = meta.getColumnType(i + 1);
+            key.append('\0').append(labels[i]).append(':').append(types[i]);
+        }
+
+        RowMapper<E> mapper = (RowMapper<E>) rowMappers.get(key.toString());
+        if (mapper == null) {
+            mapper = compileRowMapper(resultType, resultMap, labels, types);
+            if (rowMappers.size() < MAX_ROW_MAPPERS) {
+                rowMappers.put(key.toString(), mapper);
+            }
+        }
+        return mapper;
+    }
+
+    private static <E> RowMapper<E> compileRowMapper(Class<E> resultType, String resultMap, String[] labels, int[] types) {
+        Map<String, Field> map = getResultMap(resultType, resultMap);
+        if (map == null) {
+            throw new RuntimeException("类型转化失败：resultMap not found: " + resultType.getName() + " -> " + resultMap);
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Constructor<E> constructor = resultType.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            MethodHandle newInstance = lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+
+            // 只保留能对应到字段的列，每列按 (JDBC 类型, 字段类型) 选定读取方式
+            List<ColumnReader> readers = new ArrayList<>();
+            for (int i = 0; i < labels.length; i++) {
+                Field field = map.get(labels[i].toUpperCase());
+                if (field != null) {
+                    readers.add(columnReader(i + 1, types[i], field, lookup.unreflectSetter(field)));
+                }
+            }
+            ColumnReader[] columnReaders = readers.toArray(new ColumnReader[0]);
+
+            return rs -> {
+                try {
+                    Object t = newInstance.invokeExact();
+                    for (ColumnReader reader : columnReaders) {
+                        reader.read(rs, t);
+                    }
+                    return resultType.cast(t);
+                } catch (SQLException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new RuntimeException("类型转化失败：" + e, e);
+                }
+            };
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException("类型转化失败：" + e, e);
+        }
+    }
+
+    /**
+     * 读取一列并赋值给对象的字段
+     */
+    private static interface ColumnReader {
+        public void read(ResultSet rs, Object target) throws Throwable;
+    }
+
+    /**
+     * 根据列的 JDBC 类型与字段类型选定读取方式。基本类型字段直接调用 getLong、getInt 等并以基本类型赋值，列为 null 时保留字段默认值；
+     * 类型不匹配的组合使用 Convert.convert 转换
+     * 
+     * @param index
+     * @param type
+     * @param field
+     * @param setter
+     * @return
+     */
+    private static ColumnReader columnReader(int index, int type, Field field, MethodHandle setter) {
+        Class<?> fieldType = field.getType();
+        if (isIntegral(type) || isDecimal(type) || type == Types.BOOLEAN || type == Types.BIT) {
+            if (fieldType == long.class && !isDecimal(type)) {
+                MethodHandle set = setter.asType(MethodType.methodType(void.class, Object.class, long.class));
+                return (rs, t) -> {
+                    long v = rs.getLong(index);
+                    if (!rs.wasNull()) {
+                        set.invokeExact(t, v);
+                    }
+                };
+            }
+            if (fieldType == int.class && !isDecimal(type)) {
+                MethodHandle set = setter.asType(MethodType.methodType(void.class, Object.class, int.class));
+                return (rs, t) -> {
+                    int v = rs.getInt(index);
+                    if (!rs.wasNull()) {
+                        set.invokeExact(t, v);
+                    }
+                };
+            }
+            if (fieldType == double.class) {
+                MethodHandle set = setter.asType(MethodType.methodType(void.class, Object.class, double.class));
+                return (rs, t) -> {
+                    double v = rs.getDouble(index);
+                    if (!rs.wasNull()) {
+                        set.invokeExact(t, v);
+                    }
+                };
+            }
+            if (fieldType == boolean.class) {
+                MethodHandle set = setter.asType(MethodType.methodType(void.class, Object.class, boolean.class));
+                return (rs, t) -> {
+                    boolean v = rs.getBoolean(index);
+                    if (!rs.wasNull()) {
+                        set.invokeExact(t, v);
+                    }
+                };
+            }
+        }
+
+        MethodHandle set = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+        if (fieldType == Long.class && isIntegral(type)) {
+            return (rs, t) -> {
+                long v = rs.getLong(index);
+                set.invokeExact(t, (Object) (rs.wasNull() ? null : Long.valueOf(v)));
+            };
+        }
+        if (fieldType == Integer.class && isIntegral(type)) {
+            return (rs, t) -> {
+                int v = rs.getInt(index);
+                set.invokeExact(t, (Object) (rs.wasNull() ? null : Integer.valueOf(v)));
+            };
+        }
+        if (fieldType == Double.class && (isIntegral(type) || isDecimal(type))) {
+            return (rs, t) -> {
+                double v = rs.getDouble(index);
+                set.invokeExact(t, (Object) (rs.wasNull() ? null : Double.valueOf(v)));
+            };
+        }
+        if (fieldType == Boolean.class && (isIntegral(type) || type == Types.BOOLEAN || type == Types.BIT)) {
+            return (rs, t) -> {
+                boolean v = rs.getBoolean(index);
+                set.invokeExact(t, (Object) (rs.wasNull() ? null : Boolean.valueOf(v)));
+            };
+        }
+        if (fieldType == String.class && isText(type)) {
+            return (rs, t) -> {
+                set.invokeExact(t, (Object) rs.getString(index));
+            };
+        }
+        if ((fieldType == java.util.Date.class || fieldType == java.sql.Timestamp.class) && type == Types.TIMESTAMP) {
+            return (rs, t) -> {
+                set.invokeExact(t, (Object) rs.getTimestamp(index));
+            };
+        }
+
+        // 其它组合按原有方式转换
+        return (rs, t) -> {
+            set.invokeExact(t, (Object) Convert.convert(fieldType, getColumnValue(rs, index, type)));
+        };
+    }
+
+    private static boolean isIntegral(int type) {
+        return type == Types.TINYINT || type == Types.SMALLINT || type == Types.INTEGER || type == Types.BIGINT;
+    }
+
+    private static boolean isDecimal(int type) {
+        return type == Types.FLOAT || type == Types.REAL || type == Types.DOUBLE;
+    }
+
+    private static boolean isText(int type) {
+        return type == Types.CHAR || type == Types.VARCHAR || type == Types.LONGVARCHAR || type == Types.NCHAR || type == Types.NVARCHAR || type == Types.LONGNVARCHAR;
+    }
+
+    /**
+     * 读取列值，时间类型直接按时间读取
+     * 
+     * @param rs
+     * @param index
+     * @param type
+     * @return
+     * @throws SQLException
+     */
+    private static Object getColumnValue(ResultSet rs, int index, int type) throws SQLException {
+        switch (type) {
+            case Types.TIMESTAMP:
+                return rs.getTimestamp(index);
+            case Types.TIME:
+                return rs.getTime(index);
+            default:
+                return rs.getObject(index);
+        }
+    }
 }
\ No newline at end of file
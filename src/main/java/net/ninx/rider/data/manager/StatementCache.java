@@ -0,0 +1,78 @@
+package net.ninx.rider.data.manager;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 单个链接上的 PreparedStatement 缓存，key 为sql，按最近使用淘汰
+ *
+ * 取出的语句在归还前不在缓存中，同一条sql嵌套执行时会各自持有一个语句，互不影响。链接同一时间只属于一个线程，因此不需要加锁
+ */
+@Slf4j
+public class StatementCache {
+
+    private final int maxSize;
+
+    /**
+     * 每次归还都会重新放入尾部，按插入顺序即为最近使用顺序
+     */
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>();
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 取出缓存的语句，没有返回 null
+     *
+     * @param sql
+     * @return
+     */
+    PreparedStatement take(String sql) {
+        return statements.remove(sql);
+    }
+
+    /**
+     * 归还语句，超出容量时关闭最久未使用的语句
+     *
+     * @param sql
+     * @param ps
+     */
+    void giveBack(String sql, PreparedStatement ps) {
+        if (statements.containsKey(sql)) {
+            close(ps);
+            return;
+        }
+        statements.put(sql, ps);
+        if (statements.size() > maxSize) {
+            Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+            close(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * 关闭所有缓存的语句
+     */
+    void clear() {
+        statements.values().forEach(StatementCache::close);
+        statements.clear();
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            log.warn("Close statement failed: " + e);
+        }
+    }
+}
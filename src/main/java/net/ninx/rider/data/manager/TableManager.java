@@ -1,22 +1,34 @@
 package net.ninx.rider.data.manager;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.function.LongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.ReflectUtil;
 import net.ninx.rider.data.DB;
 import net.ninx.rider.data.annotations.Column;
+import net.ninx.rider.data.annotations.ResultEntity;
 import net.ninx.rider.data.annotations.Table;
 import net.ninx.rider.data.utils.DefaultDbAdapter;
 import net.ninx.rider.data.utils.CamelUtil;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
@@ -43,6 +55,8 @@ public class TableManager {
 
     /**
      * 存储表信息
+     * 
+     * insert 与 put 的sql只生成一次；update 与 select 的sql按非空字段的位掩码缓存，字段数超过 64 时不缓存
      */
     @Getter
     @Setter
@@ -52,6 +66,376 @@ public class TableManager {
         private String tableName;
         @NonNull
         private List<TableColumnConfig> columns;
+
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private volatile String insertSql;
+
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private volatile String putSql;
+
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private final Map<Long, String> updateSqlCache = new ConcurrentHashMap<>();
+
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private final Map<Long, String> selectSqlCache = new ConcurrentHashMap<>();
+
+        /**
+         * 实体缓存，@Table(cache = true) 时开启，否则为 null
+         */
+        private EntityCache cache;
+
+        /**
+         * 结果类型对应的查询列
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private final Map<Class<?>, String> viewProjections = new ConcurrentHashMap<>();
+
+        /**
+         * 字段名对应的查询列，key 为逗号连接的字段名
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private final Map<String, String> fieldProjections = new ConcurrentHashMap<>();
+
+        /**
+         * 只查询部分列的 select 语句，按查询列与非空字段的掩码缓存
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private final Map<String, Map<Long, String>> projectedSelectSqlCache = new ConcurrentHashMap<>();
+
+        /**
+         * 读取字段值的临时数组，每个线程复用一个，用完即清空
+         */
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private final ThreadLocal<Object[]> scratch = ThreadLocal.withInitial(() -> new Object[columns.size()]);
+
+        /**
+         * insert into T (A, B) values (?, ?)
+         * 
+         * @return
+         */
+        public String getInsertSql() {
+            String sql = insertSql;
+            if (sql == null) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("insert into ");
+                sb.append(tableName);
+                sb.append(" (");
+                sb.append(CollUtil.join(columns.stream().map(e -> e.COLUMN_NAME()).collect(Collectors.toList()), ", "));
+                sb.append(") values (");
+                sb.append(CollUtil.join(columns.stream().map(e -> "?").collect(Collectors.toList()), ", "));
+                sb.append(")");
+                sql = insertSql = sb.toString();
+            }
+            return sql;
+        }
+
+        /**
+         * update T set A=?, B=? where ID = ?，包含除 ID 外的所有字段
+         * 
+         * @return
+         */
+        public String getPutSql() {
+            String sql = putSql;
+            if (sql == null) {
+                sql = putSql = buildUpdateSql(i -> true);
+            }
+            return sql;
+        }
+
+        /**
+         * insert 的sql与参数，参数为所有字段
+         * 
+         * @param data
+         * @return
+         */
+        public BoundSql bindInsert(Object data) {
+            Object[] params = new Object[columns.size()];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = columns.get(i).value(data);
+            }
+            return BoundSql.of(getInsertSql(), Arrays.asList(params));
+        }
+
+        /**
+         * put 的sql与参数，参数为除 ID 外的所有字段，最后为 ID
+         * 
+         * @param data
+         * @return
+         */
+        public BoundSql bindPut(Object data) {
+            Object[] params = new Object[columns.size() + (indexOfId() < 0 ? 1 : 0)];
+            int n = 0;
+            Object id = null;
+            for (int i = 0; i < columns.size(); i++) {
+                if (i == indexOfId()) {
+                    id = columns.get(i).value(data);
+                } else {
+                    params[n++] = columns.get(i).value(data);
+                }
+            }
+            params[n] = id;
+            return BoundSql.of(getPutSql(), Arrays.asList(params));
+        }
+
+        /**
+         * update 的sql与参数，参数为除 ID 外的非空字段，最后为 ID。每个字段只读取一次
+         * 
+         * @param data
+         * @return
+         */
+        public BoundSql bindUpdate(Object data) {
+            Object[] values = scratch.get();
+            try {
+                long mask = 0;
+                int count = 0;
+                Object id = null;
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = columns.get(i).value(data);
+                    if (i == indexOfId()) {
+                        id = values[i];
+                    } else if (values[i] != null) {
+                        mask |= i < Long.SIZE ? 1L << i : 0;
+                        count++;
+                    }
+                }
+
+                Object[] params = new Object[count + 1];
+                int n = 0;
+                for (int i = 0; i < values.length; i++) {
+                    if (i != indexOfId() && values[i] != null) {
+                        params[n++] = values[i];
+                    }
+                }
+                params[n] = id;
+
+                String sql;
+                if (values.length > Long.SIZE) {
+                    sql = buildUpdateSql(i -> values[i] != null);
+                } else {
+                    sql = cached(updateSqlCache, mask, m -> buildUpdateSql(i -> (m & (1L << i)) != 0));
+                }
+                return BoundSql.of(sql, Arrays.asList(params));
+            } finally {
+                Arrays.fill(values, null);
+            }
+        }
+
+        /**
+         * select 的sql与参数，参数为 example 中的非空字段。每个字段只读取一次
+         * 
+         * @param example
+         * @return
+         */
+        public BoundSql bindSelect(Object example) {
+            return bindSelect(example, null);
+        }
+
+        /**
+         * 只查询部分列的 select 的sql与参数
+         * 
+         * @param example
+         * @param projection 查询的列，由 getProjection 生成，为 null 时查询所有列
+         * @return
+         */
+        public BoundSql bindSelect(Object example, String projection) {
+            Object[] values = scratch.get();
+            try {
+                long mask = 0;
+                int count = 0;
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = columns.get(i).value(example);
+                    if (values[i] != null) {
+                        mask |= i < Long.SIZE ? 1L << i : 0;
+                        count++;
+                    }
+                }
+
+                Object[] params = new Object[count];
+                int n = 0;
+                for (Object value : values) {
+                    if (value != null) {
+                        params[n++] = value;
+                    }
+                }
+
+                String sql;
+                if (values.length > Long.SIZE) {
+                    sql = project(buildSelectSql(i -> values[i] != null), projection);
+                } else {
+                    sql = cached(selectSqlCache(projection), mask, m -> project(buildSelectSql(i -> (m & (1L << i)) != 0), projection));
+                }
+                return BoundSql.of(sql, Arrays.asList(params));
+            } finally {
+                Arrays.fill(values, null);
+            }
+        }
+
+        /**
+         * 按 ID 批量查询的sql与参数，select * from T where deleted = false and ID in (?, ?)
+         * 
+         * @param ids
+         * @return
+         */
+        public BoundSql bindSelectByIds(Collection<Long> ids) {
+            StringBuilder sb = new StringBuilder(SELECT_ALL.length() + tableName.length() + 48 + ids.size() * 3);
+            sb.append(SELECT_ALL);
+            sb.append("from ");
+            sb.append(tableName);
+            sb.append(" where deleted = false and ID in (");
+            for (int i = 0; i < ids.size(); i++) {
+                sb.append(i == 0 ? "?" : ", ?");
+            }
+            sb.append(")");
+            return BoundSql.of(sb.toString(), new ArrayList<>(ids));
+        }
+
+        private Map<Long, String> selectSqlCache(String projection) {
+            if (projection == null) {
+                return selectSqlCache;
+            }
+            Map<Long, String> cache = projectedSelectSqlCache.get(projection);
+            if (cache == null) {
+                cache = new ConcurrentHashMap<>();
+                if (projectedSelectSqlCache.size() < MAX_PROJECTIONS) {
+                    Map<Long, String> prev = projectedSelectSqlCache.putIfAbsent(projection, cache);
+                    cache = prev == null ? cache : prev;
+                }
+            }
+            return cache;
+        }
+
+        private static String project(String selectSql, String projection) {
+            return projection == null ? selectSql : "select " + projection + " " + selectSql.substring(SELECT_ALL.length());
+        }
+
+        /**
+         * 生成查询列，如 "ID, NAME"。参数为字段名或者列名，不存在的列抛出异常
+         * 
+         * @param names
+         * @return
+         */
+        public String getProjection(String... names) {
+            String key = String.join(",", names);
+            String projection = fieldProjections.get(key);
+            if (projection == null) {
+                List<String> columnNames = new ArrayList<>(names.length);
+                for (String name : names) {
+                    TableColumnConfig column = getColumn(name);
+                    if (column == null) {
+                        throw new IllegalArgumentException("Unknown column " + name + " in table " + tableName);
+                    }
+                    columnNames.add(column.COLUMN_NAME());
+                }
+                projection = CollUtil.join(columnNames, ", ");
+                if (fieldProjections.size() < MAX_PROJECTIONS) {
+                    fieldProjections.put(key, projection);
+                }
+            }
+            return projection;
+        }
+
+        /**
+         * 生成查询列，只包含 view 中存在的列。@ResultEntity 按默认结果集匹配，其它类按字段名匹配
+         * 
+         * @param view
+         * @return
+         */
+        public String getProjection(Class<?> view) {
+            String projection = viewProjections.get(view);
+            if (projection == null) {
+                Set<String> names = view.isAnnotationPresent(ResultEntity.class) ? ResultMapManager.getResultMap(view, "").keySet()
+                        : Arrays.stream(ReflectUtil.getFields(view)).map(e -> CamelUtil.camelToUnderScore(e.getName())).collect(Collectors.toSet());
+                List<String> columnNames = columns.stream().map(e -> e.COLUMN_NAME()).filter(names::contains).collect(Collectors.toList());
+                if (columnNames.isEmpty()) {
+                    throw new IllegalArgumentException("No column of table " + tableName + " found in " + view.getName());
+                }
+                projection = CollUtil.join(columnNames, ", ");
+                viewProjections.put(view, projection);
+            }
+            return projection;
+        }
+
+        /**
+         * 根据字段名或者列名查找列，没有返回 null
+         * 
+         * @param name
+         * @return
+         */
+        public TableColumnConfig getColumn(String name) {
+            String columnName = CamelUtil.camelToUnderScore(name);
+            for (TableColumnConfig column : columns) {
+                if (column.COLUMN_NAME().equals(columnName)) {
+                    return column;
+                }
+            }
+            return null;
+        }
+
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private int idIndex = -2;
+
+        private int indexOfId() {
+            if (idIndex == -2) {
+                idIndex = IntStream.range(0, columns.size()).filter(i -> columns.get(i).COLUMN_NAME().equals("ID")).findFirst().orElse(-1);
+            }
+            return idIndex;
+        }
+
+        private static String cached(Map<Long, String> cache, long mask, LongFunction<String> builder) {
+            String sql = cache.get(mask);
+            if (sql == null) {
+                sql = builder.apply(mask);
+                String prev = cache.putIfAbsent(mask, sql);
+                sql = prev == null ? sql : prev;
+            }
+            return sql;
+        }
+
+        private String buildUpdateSql(IntPredicate included) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("update ");
+            sb.append(tableName);
+            sb.append(" set ");
+            sb.append(CollUtil.join(IntStream.range(0, columns.size()).filter(i -> !columns.get(i).COLUMN_NAME().equals("ID")).filter(included).mapToObj(i -> columns.get(i).COLUMN_NAME() + "=?").collect(Collectors.toList()), ", "));
+            sb.append(" where ID = ?");
+            return sb.toString();
+        }
+
+        private String buildSelectSql(IntPredicate included) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(SELECT_ALL);
+            sb.append("from ");
+            sb.append(tableName);
+            sb.append(" where deleted = false");
+            IntStream.range(0, columns.size()).filter(included).forEach(i -> sb.append(" and ").append(columns.get(i).COLUMN_NAME()).append(" = ?"));
+            return sb.toString();
+        }
+    }
+
+    private static final String SELECT_ALL = "select * ";
+
+    /**
+     * 每个表最多缓存的查询列组合数
+     */
+    private static final int MAX_PROJECTIONS = 256;
+
+    /**
+     * 生成的sql及其参数
+     */
+    @Getter
+    @RequiredArgsConstructor(staticName = "of")
+    public static class BoundSql {
+        private final String sql;
+        private final List<Object> params;
     }
 
     /**
@@ -67,9 +451,57 @@ public class TableManager {
         @EqualsAndHashCode.Exclude
         private Field field;
 
+        /**
+         * 预先生成的字段读取方法，类型为 (Object)Object
+         */
+        @EqualsAndHashCode.Exclude
+        private MethodHandle getter;
+
+        /**
+         * 预先生成的字段赋值方法，类型为 (Object, Object)void
+         */
+        @EqualsAndHashCode.Exclude
+        private MethodHandle setter;
+
         private String COLUMN_NAME;
 
         private String TYPE_DEFINE;
+
+        /**
+         * 读取字段值
+         * 
+         * @param data
+         * @return
+         */
+        public Object value(Object data) {
+            try {
+                return getter == null ? field.get(data) : (Object) getter.invokeExact(data);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * 字段赋值
+         * 
+         * @param data
+         * @param value
+         */
+        public void set(Object data, Object value) {
+            try {
+                if (setter == null) {
+                    field.set(data, value);
+                } else {
+                    setter.invokeExact(data, value);
+                }
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
     /**
@@ -103,11 +535,24 @@ public class TableManager {
                         columnName = CamelUtil.camelToUnderScore(columnName);
 
                         field.setAccessible(true);
-                        columns.add(TableColumnConfig.of().field(field).COLUMN_NAME(columnName).TYPE_DEFINE(tableGenerator.getSqlType(field.getType(), field.getAnnotation(Column.class).length())));
+                        MethodHandle getter;
+                        MethodHandle setter;
+                        try {
+                            getter = MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+                            setter = MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                        } catch (IllegalAccessException e) {
+                            throw new RuntimeException(e);
+                        }
+                        columns.add(TableColumnConfig.of().field(field).getter(getter).setter(setter).COLUMN_NAME(columnName).TYPE_DEFINE(tableGenerator.getSqlType(field.getType(), field.getAnnotation(Column.class).length())));
                     }
                 }
 
-                tableContainer.put(clazz, TableElement.of(tableName, columns));
+                TableElement tableElement = TableElement.of(tableName, columns);
+                Table table = clazz.getAnnotation(Table.class);
+                if (table.cache()) {
+                    tableElement.setCache(new EntityCache(clazz, columns, table.cacheSize(), table.cacheTtl()));
+                }
+                tableContainer.put(clazz, tableElement);
 
                 // 生成或者更新表结构
                 initTable(tableName, columns);
@@ -115,6 +560,21 @@ public class TableManager {
         });
     }
 
+    /**
+     * 号段表，每行一个序列，NEXT_ID 为下一个未分配的 id
+     */
+    public static final String SEQUENCE_TABLE = "RIDER_SEQUENCE";
+
+    /**
+     * 生成或者更新号段表
+     */
+    public static void initSequenceTable() {
+        List<TableColumnConfig> columns = new ArrayList<>();
+        columns.add(TableColumnConfig.of().COLUMN_NAME("NAME").TYPE_DEFINE(tableGenerator.getSqlType(String.class, 64)));
+        columns.add(TableColumnConfig.of().COLUMN_NAME("NEXT_ID").TYPE_DEFINE(tableGenerator.getSqlType(Long.class, 0)));
+        initTable(SEQUENCE_TABLE, columns);
+    }
+
     /**
      * 生成或者更新表结构
      * 
@@ -126,8 +586,9 @@ public class TableManager {
         /**
          * 对比分析，初始化或者更新表结构
          */
+        ConnectionManager connectionManager = DB.use().getConnectionManager();
         try {
-            DatabaseMetaData md = DB.use().getConnection().getMetaData();
+            DatabaseMetaData md = connectionManager.open().getMetaData();
             /**
              * 获取表是否存在
              */
@@ -192,6 +653,8 @@ public class TableManager {
 
         } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            connectionManager.close();
         }
     }
 
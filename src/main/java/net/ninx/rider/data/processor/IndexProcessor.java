@@ -0,0 +1,92 @@
+package net.ninx.rider.data.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import net.ninx.rider.data.utils.ClassIndex;
+
+/**
+ * 编译期生成类索引，DB.init 读取索引后不需要扫描包下所有的类
+ * 
+ * 增量编译时会合并已有的索引
+ */
+public class IndexProcessor extends AbstractProcessor {
+
+    private static final String[] ANNOTATIONS = { //
+            "net.ninx.rider.data.annotations.Table", //
+            "net.ninx.rider.data.annotations.ResultEntity", //
+            "net.ninx.rider.data.annotations.Mapper" //
+    };
+
+    private final Set<String> classes = new TreeSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new TreeSet<>(Arrays.asList(ANNOTATIONS));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            // 包含通过 @Inherited 继承注解的子类
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof TypeElement) {
+                    classes.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+                }
+            }
+        }
+        if (roundEnv.processingOver() && !classes.isEmpty()) {
+            writeIndex();
+        }
+        return false;
+    }
+
+    private void writeIndex() {
+        Set<String> all = new TreeSet<>(classes);
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", ClassIndex.LOCATION);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        all.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // 没有已有的索引
+        }
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ClassIndex.LOCATION);
+            try (Writer writer = file.openWriter()) {
+                for (String name : all) {
+                    writer.write(name);
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Write rider-data class index failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package net.ninx.rider.data.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+import net.ninx.rider.data.manager.MapperManager;
+
+/**
+ * 编译期为 @Mapper 抽象类生成实现类，每个 @Sql 方法直接调用对应的执行计划，不再需要 cglib 在运行时生成代理
+ *
+ * 实现类与 mapper 在同一个包下，名称为 mapper 的类名加 _RiderImpl。无法生成的 mapper（带泛型参数、存在没有 @Sql 的抽象方法等）运行时仍使用 cglib 代理
+ */
+public class MapperProcessor extends AbstractProcessor {
+
+    private static final String MAPPER = "net.ninx.rider.data.annotations.Mapper";
+
+    private static final String SQL = "net.ninx.rider.data.annotations.Sql";
+
+    private static final String MAPPER_MANAGER = "net.ninx.rider.data.manager.MapperManager";
+
+    /**
+     * 生成的方法中 try 块内语句的缩进
+     */
+    private static final String INDENT = "            ";
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(MAPPER);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            // 包含通过 @Inherited 继承注解的子类
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.CLASS && element.getModifiers().contains(Modifier.ABSTRACT)) {
+                    TypeElement type = (TypeElement) element;
+                    if (generated.add(type.getQualifiedName().toString())) {
+                        generate(type);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type) {
+        List<ExecutableElement> methods = abstractMethods(type);
+        String reason = unsupported(type, methods);
+        if (reason != null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Skip generating mapper, use cglib proxy instead: " + reason, type);
+            return;
+        }
+
+        Elements elements = processingEnv.getElementUtils();
+        String pkg = elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = elements.getBinaryName(type).toString();
+        String simpleName = (pkg.isEmpty() ? binaryName : binaryName.substring(pkg.length() + 1)) + MapperManager.IMPL_SUFFIX;
+
+        StringBuilder code = new StringBuilder();
+        if (!pkg.isEmpty()) {
+            code.append("package ").append(pkg).append(";\n\n");
+        }
+        code.append("/**\n * 由 ").append(getClass().getName()).append(" 生成，请勿修改\n */\n");
+        code.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+        code.append("public class ").append(simpleName).append(" extends ").append(type.getQualifiedName()).append(" {\n");
+        for (int i = 0; i < methods.size(); i++) {
+            appendPlan(code, i, methods.get(i));
+        }
+        for (int i = 0; i < methods.size(); i++) {
+            appendMethod(code, i, type, methods.get(i));
+        }
+        code.append("}\n");
+
+        String name = pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(name, type).openWriter()) {
+            writer.write(code.toString());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Generate mapper " + name + " failed: " + e, type);
+        }
+    }
+
+    /**
+     * 需要实现的抽象方法，包括父类中的
+     */
+    private List<ExecutableElement> abstractMethods(TypeElement type) {
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            if (member.getKind() == ElementKind.METHOD && member.getModifiers().contains(Modifier.ABSTRACT)) {
+                methods.add((ExecutableElement) member);
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * 不能生成实现类的原因，可以生成时返回 null
+     */
+    private String unsupported(TypeElement type, List<ExecutableElement> methods) {
+        if (!type.getTypeParameters().isEmpty()) {
+            return "mapper has type parameters";
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return "mapper is private";
+            }
+            if (((TypeElement) e).getNestingKind() != NestingKind.TOP_LEVEL && ((TypeElement) e).getNestingKind() != NestingKind.MEMBER) {
+                return "mapper is a local class";
+            }
+            if (((TypeElement) e).getNestingKind() == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC)) {
+                return "mapper is an inner class";
+            }
+        }
+        if (!hasDefaultConstructor(type)) {
+            return "mapper has no accessible no-arg constructor";
+        }
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        for (ExecutableElement method : methods) {
+            if (!isSql(method)) {
+                return "method " + method.getSimpleName() + " has no @Sql";
+            }
+            if (!method.getTypeParameters().isEmpty()) {
+                return "method " + method.getSimpleName() + " has type parameters";
+            }
+            Set<Modifier> modifiers = method.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.PROTECTED)
+                    && !pkg.equals(processingEnv.getElementUtils().getPackageOf(method))) {
+                return "method " + method.getSimpleName() + " is not visible";
+            }
+        }
+        return null;
+    }
+
+    private boolean hasDefaultConstructor(TypeElement type) {
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.CONSTRUCTOR && ((ExecutableElement) member).getParameters().isEmpty()) {
+                return !member.getModifiers().contains(Modifier.PRIVATE);
+            }
+        }
+        return false;
+    }
+
+    private boolean isSql(ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (SQL.equals(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 每个方法的执行计划在类加载时获取一次
+     */
+    private void appendPlan(StringBuilder code, int index, ExecutableElement method) {
+        Types types = processingEnv.getTypeUtils();
+        code.append("    private static final ").append(MAPPER_MANAGER).append(".MapperMethod M").append(index);
+        code.append(" = ").append(MAPPER_MANAGER).append(".getMapperMethod(");
+        code.append(((TypeElement) method.getEnclosingElement()).getQualifiedName()).append(".class, \"").append(method.getSimpleName()).append("\"");
+        method.getParameters().forEach(p -> code.append(", ").append(types.erasure(p.asType())).append(".class"));
+        code.append(");\n\n");
+    }
+
+    private void appendMethod(StringBuilder code, int index, TypeElement type, ExecutableElement method) {
+        Types types = processingEnv.getTypeUtils();
+        // 父类带泛型时取在当前类中的实际类型
+        ExecutableType resolved = (ExecutableType) types.asMemberOf((DeclaredType) type.asType(), method);
+        List<? extends TypeMirror> paramTypes = resolved.getParameterTypes();
+        TypeMirror returnType = resolved.getReturnType();
+
+        code.append("    @Override\n    ");
+        if (method.getModifiers().contains(Modifier.PUBLIC)) {
+            code.append("public ");
+        } else if (method.getModifiers().contains(Modifier.PROTECTED)) {
+            code.append("protected ");
+        }
+        code.append(returnType).append(" ").append(method.getSimpleName()).append("(");
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < paramTypes.size(); i++) {
+            code.append(i == 0 ? "" : ", ").append(paramTypes.get(i)).append(" p").append(i);
+            args.append(i == 0 ? "" : ", ").append("p").append(i);
+        }
+        code.append(")");
+        List<? extends TypeMirror> thrown = resolved.getThrownTypes();
+        for (int i = 0; i < thrown.size(); i++) {
+            code.append(i == 0 ? " throws " : ", ").append(thrown.get(i));
+        }
+        code.append(" {\n");
+
+        String call = "M" + index + ".invoke(new Object[] { " + args + " })";
+        String statement;
+        if (returnType.getKind() == TypeKind.VOID) {
+            statement = call + ";";
+        } else if (returnType.getKind().isPrimitive()) {
+            statement = "Object r = " + call + ";\n" + INDENT + "return " + unbox((PrimitiveType) returnType) + ";";
+        } else {
+            statement = "return (" + returnType + ") " + call + ";";
+        }
+
+        // invoke 声明了 Exception，与 cglib 代理一致，未声明的受检异常包装为 UndeclaredThrowableException
+        if (throwsAll(thrown)) {
+            code.append("        ").append(statement.replace("\n" + INDENT, "\n        ")).append("\n");
+        } else {
+            code.append("        try {\n").append(INDENT).append(statement).append("\n");
+            code.append("        } catch (RuntimeException e) {\n            throw e;\n");
+            code.append("        } catch (Exception e) {\n");
+            for (TypeMirror t : thrown) {
+                code.append("            if (e instanceof ").append(types.erasure(t)).append(") {\n");
+                code.append("                throw (").append(types.erasure(t)).append(") e;\n            }\n");
+            }
+            code.append("            throw new java.lang.reflect.UndeclaredThrowableException(e);\n        }\n");
+        }
+        code.append("    }\n\n");
+    }
+
+    /**
+     * 返回基本类型时与 cglib 代理一致：数字类型通过 Number 转换，null 返回 0 或者 false
+     *
+     * @param type
+     * @return
+     */
+    private static String unbox(PrimitiveType type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "r == null ? false : (Boolean) r";
+            case CHAR:
+                return "r == null ? '\\0' : (Character) r";
+            default:
+                return "r == null ? 0 : ((Number) r)." + type + "Value()";
+        }
+    }
+
+    private boolean throwsAll(List<? extends TypeMirror> thrown) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror exception = processingEnv.getElementUtils().getTypeElement(Exception.class.getName()).asType();
+        return thrown.stream().anyMatch(t -> types.isAssignable(exception, t));
+    }
+}
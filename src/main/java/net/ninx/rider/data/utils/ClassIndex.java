@@ -0,0 +1,96 @@
+package net.ninx.rider.data.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 编译期生成的类索引，记录 @Table、@ResultEntity、@Mapper 标记的类，由 IndexProcessor 生成
+ * 
+ * 每个 jar 或者 classes 目录下一个文件，每行一个类名
+ */
+@Slf4j
+public class ClassIndex {
+
+    public static final String LOCATION = "META-INF/rider-data/index";
+
+    /**
+     * 读取 clazz 所在包及其子包下的索引类，只加载不初始化
+     * 
+     * 只使用与 clazz 在同一个 jar 或者 classes 目录下的索引，依赖中的索引不影响当前应用。没有索引文件，或者索引中没有该包下的类时返回 null
+     * 
+     * @param clazz
+     * @return
+     */
+    public static Set<Class<?>> read(Class<?> clazz) {
+        ClassLoader classLoader = clazz.getClassLoader();
+        URL url = find(clazz);
+        if (url == null) {
+            return null;
+        }
+
+        String pkg = clazz.getPackage().getName();
+        String prefix = pkg.isEmpty() ? "" : pkg + ".";
+        Set<Class<?>> classes = new HashSet<>();
+        boolean matched = false;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String name = line.trim();
+                if (name.isEmpty() || name.startsWith("#") || !name.startsWith(prefix)) {
+                    continue;
+                }
+                matched = true;
+                try {
+                    classes.add(Class.forName(name, false, classLoader));
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // 增量编译时索引中可能残留已删除的类
+                    log.debug("Indexed class not found: " + name);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Read class index " + url + " failed: " + e);
+            return null;
+        }
+        if (!matched) {
+            return null;
+        }
+        log.debug("Load " + classes.size() + " classes from index " + url);
+        return classes;
+    }
+
+    /**
+     * 与 clazz 在同一个 jar 或者 classes 目录下的索引文件，没有返回 null
+     * 
+     * @param clazz
+     * @return
+     */
+    private static URL find(Class<?> clazz) {
+        ClassLoader classLoader = clazz.getClassLoader();
+        String classFile = clazz.getName().replace('.', '/') + ".class";
+        URL classUrl = classLoader.getResource(classFile);
+        if (classUrl == null) {
+            return null;
+        }
+        String root = classUrl.toString().substring(0, classUrl.toString().length() - classFile.length());
+        try {
+            Enumeration<URL> resources = classLoader.getResources(LOCATION);
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+                if (url.toString().equals(root + LOCATION)) {
+                    return url;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Read class index failed: " + e);
+        }
+        return null;
+    }
+}
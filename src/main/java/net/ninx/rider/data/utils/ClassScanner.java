@@ -1,31 +1,88 @@
 package net.ninx.rider.data.utils;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Inherited;
 import java.net.JarURLConnection;
-import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import cn.hutool.core.io.IoUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.ninx.rider.data.annotations.Mapper;
+import net.ninx.rider.data.annotations.ResultEntity;
+import net.ninx.rider.data.annotations.Table;
 
 /**
- * 
+ *
  * 扫描包下路径 包括本地文件和jar包文件
- * 
+ *
+ * 不加载类，直接读取 class 文件的常量池与 RuntimeVisibleAnnotations 属性判断是否有指定的注解，只加载匹配的类。@Inherited 注解按父类继承，包之外的父类按需读取 class 文件。class 文件在 fork-join 线程池中并行解析
+ *
  * @author https://blog.csdn.net/qq_35507342/article/details/73733622
  */
-
+@Slf4j
 public class ClassScanner {
 
     private Set<Class<?>> clazzList = new HashSet<Class<?>>();
 
     private final ClassLoader classLoader = ClassScanner.class.getClassLoader();// 默认使用的类加载器
 
+    /**
+     * 注解的类型描述符，如 Lnet/ninx/rider/data/annotations/Table;
+     */
+    private final Set<String> descriptors = new HashSet<>();
+
+    /**
+     * 可以被子类继承的注解的类型描述符
+     */
+    private final Set<String> inheritedDescriptors = new HashSet<>();
+
+    /**
+     * 扫描的包之外的父类，按需读取
+     */
+    private final Map<String, ClassInfo> outside = new HashMap<>();
+
+    /**
+     * 默认扫描 @Table、@ResultEntity、@Mapper 标记的类
+     */
+    public ClassScanner() {
+        this(Table.class, ResultEntity.class, Mapper.class);
+    }
+
+    @SafeVarargs
+    public ClassScanner(Class<? extends Annotation>... annotations) {
+        for (Class<? extends Annotation> annotation : annotations) {
+            String descriptor = "L" + annotation.getName().replace('.', '/') + ";";
+            descriptors.add(descriptor);
+            if (annotation.isAnnotationPresent(Inherited.class)) {
+                inheritedDescriptors.add(descriptor);
+            }
+        }
+    }
+
     /**
      * 扫描时过滤，需要设置就重写此方法
      * @param clazz
@@ -36,89 +93,307 @@ public class ClassScanner {
     }
 
     /**
-     * 扫描类所在包以及等级之下的包的所有的类
-     * 
+     * 从 class 文件中读取的信息
+     */
+    @RequiredArgsConstructor
+    private static class ClassInfo {
+        private final String name;
+        private final String superName;
+        private final boolean annotated;
+        private final boolean inheritable;
+    }
+
+    private static interface ClassSource {
+        public InputStream open() throws IOException;
+    }
+
+    /**
+     * 扫描类所在包以及等级之下的包中有指定注解的类
+     *
      * @throws ClassNotFoundException
      */
     public Set<Class<?>> findAllClass(Class<?> clazz) throws ClassNotFoundException {
         String pkg = clazz.getPackage().getName();
-        URL url = this.classLoader.getResource(pkg.replace(".", "/"));
-        String protocol = url.getProtocol();
-        if ("file".equals(protocol)) {
-            this.findClassLocal(pkg);
-        } else if ("jar".equals(protocol)) {
-            this.findClassInJar(pkg);
+        String pathName = pkg.replace(".", "/");
+
+        // 同一个包可能分布在多个目录或者 jar 中
+        List<Callable<ClassInfo>> tasks = new ArrayList<>();
+        try {
+            Enumeration<URL> urls = this.classLoader.getResources(pathName);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                String protocol = url.getProtocol();
+                if ("file".equals(protocol)) {
+                    this.findClassLocal(pkg, Paths.get(url.toURI()), tasks);
+                } else if ("jar".equals(protocol)) {
+                    // JarURLConnection 缓存的 JarFile 由 jdk 管理，不关闭
+                    JarFile jarFile = ((JarURLConnection) url.openConnection()).getJarFile();
+                    this.findClassInJar(pathName, jarFile, tasks);
+                }
+            }
+            resolve(parseAll(tasks));
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException("No strategy resource found", e);
         }
         return this.clazzList;
     }
 
     /**
      * 本地查找
-     * 
+     *
      * @param packName
-     * @throws ClassNotFoundException
-     * 
+     * @param dir
+     * @param tasks
+     * @throws IOException
      */
-    private void findClassLocal(final String packName) throws ClassNotFoundException{
-        URI url = null;
-        try {
-            url = classLoader.getResource(packName.replace(".", "/")).toURI();
-        } catch (URISyntaxException e1) {
-            throw new RuntimeException("No strategy resource found");
-        }
-        File file = new File(url);
-        for (File chiFile : file.listFiles()) {
-            if (chiFile.isDirectory()) {
-                findClassLocal(packName + "." + chiFile.getName());
-            }
-            if (chiFile.getName().endsWith(".class")) {
-                Class<?> clazz = null;
-                clazz = classLoader.loadClass(packName + "." + chiFile.getName().replace(".class", ""));
-                clazzList.add(filter(clazz));
-            }
+    private void findClassLocal(final String packName, Path dir, List<Callable<ClassInfo>> tasks) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.filter(e -> e.getFileName().toString().endsWith(".class")).forEach(file -> {
+                String relative = dir.relativize(file).toString().replace(file.getFileSystem().getSeparator(), ".");
+                String name = packName + "." + relative.substring(0, relative.length() - ".class".length());
+                tasks.add(() -> parse(name, () -> Files.newInputStream(file)));
+            });
         }
     }
 
     /**
-     * jar包查找
-     * 
-     * @param packName
-     * @throws ClassNotFoundException
-     * 
+     * jar包查找，只遍历一次 jar 中的条目
+     *
+     * @param pathName
+     * @param jarFile
+     * @param tasks
      */
-    private void findClassInJar(final String packName) throws ClassNotFoundException {
-        String pathName = packName.replace(".", "/");
-        JarFile jarFile = null;
-        try {
-            URL url = classLoader.getResource(pathName);
-            JarURLConnection jarURLConnection = (JarURLConnection) url.openConnection();
-            jarFile = jarURLConnection.getJarFile();
-        } catch (IOException e) {
-            throw new RuntimeException("No strategy resource found");
-        }
+    private void findClassInJar(final String pathName, JarFile jarFile, List<Callable<ClassInfo>> tasks) {
         Enumeration<JarEntry> jarEntries = jarFile.entries();
         while (jarEntries.hasMoreElements()) {
             JarEntry jarEntry = jarEntries.nextElement();
             String jarEntryName = jarEntry.getName();
-            if (jarEntryName.contains(pathName) && !jarEntryName.equals(pathName + "/")) {
-                // 递归遍历子目录
-                if (jarEntry.isDirectory()) {
-                    String clazzName = jarEntry.getName().replace("/", ".");
-                    int endIndex = clazzName.lastIndexOf(".");
-                    String prefix = null;
-                    if (endIndex > 0) {
-                        prefix = clazzName.substring(0, endIndex);
-                    }
-                    findClassInJar(prefix);
+            if (jarEntryName.startsWith(pathName + "/") && jarEntryName.endsWith(".class")) {
+                String name = jarEntryName.substring(0, jarEntryName.length() - ".class".length()).replace("/", ".");
+                tasks.add(() -> parse(name, () -> jarFile.getInputStream(jarEntry)));
+            }
+        }
+    }
+
+    /**
+     * 并行解析所有的 class 文件
+     *
+     * @param tasks
+     * @return
+     */
+    private Map<String, ClassInfo> parseAll(List<Callable<ClassInfo>> tasks) {
+        try {
+            return ForkJoinPool.commonPool().submit(() -> tasks.parallelStream().map(task -> {
+                try {
+                    return task.call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
                 }
-                if (jarEntry.getName().endsWith(".class")) {
-                    Class<?> clazz = null;
-                    clazz = classLoader.loadClass(jarEntry.getName().replace("/", ".").replace(".class", ""));
-                    clazzList.add(filter(clazz));
+            }).filter(Objects::nonNull).collect(Collectors.toMap(e -> e.name, e -> e, (a, b) -> a))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * 加载有注解的类，以及父类有可继承注解的类
+     *
+     * @param infos
+     * @throws ClassNotFoundException
+     */
+    private void resolve(Map<String, ClassInfo> infos) throws ClassNotFoundException {
+        Map<String, Boolean> inherits = new HashMap<>();
+        for (ClassInfo info : infos.values()) {
+            if (info.annotated || inheritsAnnotation(info, infos, inherits)) {
+                clazzList.add(filter(Class.forName(info.name, false, classLoader)));
+            }
+        }
+    }
+
+    private boolean inheritsAnnotation(ClassInfo info, Map<String, ClassInfo> infos, Map<String, Boolean> inherits) {
+        if (info.superName == null) {
+            return false;
+        }
+        Boolean known = inherits.get(info.name);
+        if (known != null) {
+            return known;
+        }
+        ClassInfo parent = lookup(info.superName, infos);
+        boolean result = parent != null && (parent.inheritable || inheritsAnnotation(parent, infos, inherits));
+        inherits.put(info.name, result);
+        return result;
+    }
+
+    /**
+     * 获取父类的信息，不在扫描的包中时通过类加载器读取 class 文件
+     *
+     * @param name
+     * @param infos
+     * @return
+     */
+    private ClassInfo lookup(String name, Map<String, ClassInfo> infos) {
+        ClassInfo info = infos.get(name);
+        if (info != null || name.startsWith("java.")) {
+            return info;
+        }
+        if (outside.containsKey(name)) {
+            return outside.get(name);
+        }
+        URL url = classLoader.getResource(name.replace('.', '/') + ".class");
+        info = url == null ? null : parse(name, url::openStream);
+        outside.put(name, info);
+        return info;
+    }
+
+    /**
+     * 读取 class 文件，解析失败返回 null
+     *
+     * @param name
+     * @param source
+     * @return
+     */
+    private ClassInfo parse(String name, ClassSource source) {
+        byte[] bytes;
+        try (InputStream in = source.open()) {
+            bytes = IoUtil.readBytes(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Read class " + name + " failed", e);
+        }
+        try {
+            return parse(name, new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Parse class " + name + " failed: " + e);
+            return null;
+        }
+    }
+
+    private ClassInfo parse(String name, DataInputStream in) throws IOException {
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file");
+        }
+        in.skipBytes(4); // minor_version, major_version
+
+        // 常量池，只保留 Utf8 与 Class
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        boolean mentioned = false;
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    mentioned |= descriptors.contains(utf8[i]);
+                    break;
+                case 7: // Class
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        in.skipBytes(4); // access_flags, this_class
+        int superIndex = in.readUnsignedShort();
+        String superName = superIndex == 0 ? null : utf8[classNames[superIndex]].replace('/', '.');
+        if (!mentioned) {
+            return new ClassInfo(name, superName, false, false);
+        }
+
+        in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+        skipMembers(in); // fields
+        skipMembers(in); // methods
+
+        // 类的属性
+        boolean annotated = false;
+        boolean inheritable = false;
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            String attribute = utf8[in.readUnsignedShort()];
+            int length = in.readInt();
+            if (!"RuntimeVisibleAnnotations".equals(attribute)) {
+                in.skipBytes(length);
+                continue;
+            }
+            int annotations = in.readUnsignedShort();
+            for (int j = 0; j < annotations; j++) {
+                String type = utf8[in.readUnsignedShort()];
+                if (descriptors.contains(type)) {
+                    annotated = true;
+                    inheritable |= inheritedDescriptors.contains(type);
                 }
+                skipElementValuePairs(in);
             }
+        }
+        return new ClassInfo(name, superName, annotated, inheritable);
+    }
 
+    private static void skipMembers(DataInputStream in) throws IOException {
+        int members = in.readUnsignedShort();
+        for (int i = 0; i < members; i++) {
+            in.skipBytes(6); // access_flags, name_index, descriptor_index
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                in.skipBytes(2);
+                in.skipBytes(in.readInt());
+            }
         }
+    }
 
+    private static void skipElementValuePairs(DataInputStream in) throws IOException {
+        int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            in.skipBytes(2); // element_name_index
+            skipElementValue(in);
+        }
+    }
+
+    private static void skipElementValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e': // enum
+                in.skipBytes(4);
+                break;
+            case '@': // annotation
+                in.skipBytes(2);
+                skipElementValuePairs(in);
+                break;
+            case '[': // array
+                int values = in.readUnsignedShort();
+                for (int i = 0; i < values; i++) {
+                    skipElementValue(in);
+                }
+                break;
+            default: // 基本类型、String、Class
+                in.skipBytes(2);
+                break;
+        }
     }
 }
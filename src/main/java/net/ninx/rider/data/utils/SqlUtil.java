@@ -1,13 +1,21 @@
 package net.ninx.rider.data.utils;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.beetl.core.Configuration;
 import org.beetl.core.GroupTemplate;
 import org.beetl.core.Template;
 import org.beetl.core.resource.StringTemplateResourceLoader;
 
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
 /**
  * SqlUtil
  */
@@ -24,6 +32,23 @@ public class SqlUtil {
         }
     }
 
+    /**
+     * 模板是否为静态sql，key 为模板内容
+     */
+    private static final Map<String, Boolean> staticTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * 最多缓存的模板数，超出后不再缓存，与 MapperManager 中动态模板的缓存一致
+     */
+    private static final int MAX_STATIC_TEMPLATES = 1024;
+
+    /**
+     * 渲染缓冲区，每个线程复用一个，超过 MAX_BUFFER_SIZE 后丢弃，避免长期占用大块内存
+     */
+    private static final ThreadLocal<StringWriter> buffers = ThreadLocal.withInitial(() -> new StringWriter(256));
+
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
     public static class SqlMap<K, V> extends HashMap<K, V> {
         private static final long serialVersionUID = 1349505384282568715L;
 
@@ -36,6 +61,53 @@ public class SqlUtil {
         }
     }
 
+    /**
+     * 解析后的sql，#{prop} 已替换为 ?，placeholders 按顺序记录每个 ? 对应的属性路径
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class ParsedSql {
+        private final String sql;
+        private final String[] placeholders;
+    }
+
+    /**
+     * 解析sql中的 #{prop} 占位符，prop 由字母、数字、下划线组成，可以用 . 访问属性，如 #{user.name}
+     * 
+     * @param sql
+     * @return
+     */
+    public static ParsedSql parse(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        List<String> placeholders = new ArrayList<>();
+        int i = 0;
+        while (i < sql.length()) {
+            int start = sql.indexOf("#{", i);
+            if (start < 0) {
+                sb.append(sql, i, sql.length());
+                break;
+            }
+            int end = start + 2;
+            while (end < sql.length() && isPropertyChar(sql.charAt(end))) {
+                end++;
+            }
+            if (end < sql.length() && end > start + 2 && sql.charAt(end) == '}' && sql.charAt(start + 2) != '.' && sql.charAt(end - 1) != '.') {
+                sb.append(sql, i, start);
+                sb.append('?');
+                placeholders.add(sql.substring(start + 2, end));
+                i = end + 1;
+            } else {
+                sb.append(sql, i, start + 2);
+                i = start + 2;
+            }
+        }
+        return new ParsedSql(sb.toString(), placeholders.toArray(new String[0]));
+    }
+
+    private static boolean isPropertyChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '.';
+    }
+
     public static SqlMap<String, Object> NewSqlMap() {
         return new SqlMap<>();
     }
@@ -48,6 +120,23 @@ public class SqlUtil {
         return sql(template, model, gt);
     }
 
+    /**
+     * 判断模板是否不含任何 Beetl 指令，使用默认配置
+     * 
+     * @param template
+     * @return
+     */
+    public static boolean isStatic(String template) {
+        Boolean isStatic = staticTemplates.get(template);
+        if (isStatic == null) {
+            isStatic = isStatic(template, gt.getConf());
+            if (staticTemplates.size() < MAX_STATIC_TEMPLATES) {
+                staticTemplates.put(template, isStatic);
+            }
+        }
+        return isStatic;
+    }
+
     public static String sql(String template, SqlMap<String, ?> model, GroupTemplate gt) {
         if (template == null) {
             return null;
@@ -56,8 +145,40 @@ public class SqlUtil {
             throw new IllegalAccessError("Beetl GroupTemplate 不能为空 !");
         }
 
+        // 没有模板指令的sql不需要经过 Beetl
+        if (gt == SqlUtil.gt ? isStatic(template) : isStatic(template, gt.getConf())) {
+            return template;
+        }
+
+        // Beetl 按模板内容缓存编译结果，这里只绑定参数并渲染到线程复用的缓冲区
         Template t = gt.getTemplate(template);
         t.binding(model);
-        return t.render();
+        StringWriter buffer = buffers.get();
+        buffer.getBuffer().setLength(0);
+        t.renderTo(buffer);
+        String sql = buffer.toString();
+        if (buffer.getBuffer().capacity() > MAX_BUFFER_SIZE) {
+            buffers.remove();
+        }
+        return sql;
+    }
+
+    /**
+     * 判断模板是否不含任何 Beetl 指令
+     * 
+     * @param template
+     * @param cfg
+     * @return
+     */
+    public static boolean isStatic(String template, Configuration cfg) {
+        return !contains(template, cfg.getStatementStart()) //
+                && !contains(template, cfg.getStatementStart2()) //
+                && !contains(template, cfg.getPlaceholderStart()) //
+                && !contains(template, cfg.getPlaceholderStart2()) //
+                && !(cfg.isHtmlTagSupport() && contains(template, cfg.getHtmlTagStart()));
+    }
+
+    private static boolean contains(String template, String delimiter) {
+        return delimiter != null && delimiter.length() != 0 && template.contains(delimiter);
     }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package net.ninx.rider.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import cn.hutool.db.ds.simple.SimpleDataSource;
+import net.ninx.rider.data.Student.StudentMapper;
+
+/**
+ * 测试共用的数据库，DB 只能初始化一次，所有测试使用同一个临时 SQLite 文件
+ */
+public class TestDB {
+
+    private static boolean initialized;
+
+    public static synchronized void init() throws ClassNotFoundException, IOException {
+        if (initialized) {
+            return;
+        }
+        File file = File.createTempFile("rider-data-test", ".db");
+        file.deleteOnExit();
+        Set<Class<?>> classes = new HashSet<>();
+        classes.add(Student.class);
+        classes.add(StudentMapper.class);
+        DB.init(App.class, classes, new SimpleDataSource("jdbc:sqlite:" + file.getAbsolutePath(), "SA", ""));
+        initialized = true;
+    }
+}
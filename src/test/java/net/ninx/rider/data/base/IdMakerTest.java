@@ -0,0 +1,49 @@
+package net.ninx.rider.data.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class IdMakerTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty("rider.data.workerId");
+        System.clearProperty("rider.data.datacenterId");
+    }
+
+    /**
+     * 在新的类加载器中加载 IdMaker，重新读取系统属性
+     */
+    private static Class<?> loadIdMaker() throws Exception {
+        URL[] urls = { IdMaker.class.getProtectionDomain().getCodeSource().getLocation(),
+                org.slf4j.Logger.class.getProtectionDomain().getCodeSource().getLocation() };
+        return new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent()).loadClass(IdMaker.class.getName());
+    }
+
+    @Test
+    public void useWorkerFromProperties() throws Exception {
+        System.setProperty("rider.data.workerId", "7");
+        System.setProperty("rider.data.datacenterId", "3");
+        Class<?> idMaker = loadIdMaker();
+        assertEquals(7L, idMaker.getMethod("getWorkerId").invoke(null));
+        assertEquals(3L, idMaker.getMethod("getDatacenterId").invoke(null));
+    }
+
+    @Test
+    public void deriveWorkerWhenPropertiesInvalid() throws Exception {
+        System.setProperty("rider.data.workerId", "abc");
+        System.setProperty("rider.data.datacenterId", "99");
+        Class<?> idMaker = loadIdMaker();
+        long workerId = (Long) idMaker.getMethod("getWorkerId").invoke(null);
+        long datacenterId = (Long) idMaker.getMethod("getDatacenterId").invoke(null);
+        assertTrue(workerId >= 0 && workerId <= 31);
+        assertTrue(datacenterId >= 0 && datacenterId <= 31);
+        assertTrue((Long) idMaker.getMethod("getOneId").invoke(null) > 0);
+    }
+}
@@ -0,0 +1,112 @@
+package net.ninx.rider.data.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import cn.hutool.core.util.ReflectUtil;
+
+import net.ninx.rider.data.DB;
+import net.ninx.rider.data.Student;
+import net.ninx.rider.data.Student.StudentMapper;
+import net.ninx.rider.data.TestDB;
+import net.ninx.rider.data.manager.TableManager;
+
+public class SegmentIdGeneratorTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        TestDB.init();
+    }
+
+    private static Long nextIdInTable(String name) throws Exception {
+        return DB.use().query("select NEXT_ID from " + TableManager.SEQUENCE_TABLE + " where NAME = ?", Long.class, new ArrayList<>(Arrays.asList(name)));
+    }
+
+    @Test
+    public void loadFirstSegmentWhenInstalled() throws Exception {
+        SegmentIdGenerator generator = new SegmentIdGenerator("INSTALL", 10, 0.5);
+        DB.use().setIdGenerator(generator);
+        try {
+            assertEquals(Long.valueOf(11), nextIdInTable("INSTALL"));
+            assertEquals(1, generator.nextId());
+        } finally {
+            DB.use().setIdGenerator(IdGenerator.SNOWFLAKE);
+        }
+    }
+
+    @Test
+    public void allocateAcrossSegments() {
+        SegmentIdGenerator generator = new SegmentIdGenerator("ACROSS", 3, 0.5);
+        DB.use().setIdGenerator(generator);
+        try {
+            Set<Long> ids = new HashSet<>();
+            for (int i = 0; i < 20; i++) {
+                assertTrue(ids.add(generator.nextId()));
+            }
+        } finally {
+            DB.use().setIdGenerator(IdGenerator.SNOWFLAKE);
+        }
+    }
+
+    @Test
+    public void failFastOnSqliteWhenExhaustedInTransaction() throws IOException {
+        SegmentIdGenerator generator = new SegmentIdGenerator("TX", 3, 0.5);
+        DB.use().setIdGenerator(generator);
+        StudentMapper mapper = DB.use().mapper(StudentMapper.class);
+        long start = System.currentTimeMillis();
+        try {
+            DB.use().tx(() -> {
+                for (int i = 0; i < 10; i++) {
+                    Student student = new Student();
+                    student.setName("segment" + i);
+                    mapper.create(student);
+                }
+            });
+            fail("segment should be exhausted in transaction");
+        } catch (IllegalStateException e) {
+            // SQLite 的写锁被事务持有，不等待预取
+            assertTrue(e.getMessage().contains("exhausted in a transaction"));
+            assertTrue(System.currentTimeMillis() - start < generator.getWaitTimeout());
+        }
+
+        // 事务结束后可以继续获取
+        try {
+            Set<Long> ids = new HashSet<>();
+            for (int i = 0; i < 10; i++) {
+                assertTrue(ids.add(generator.nextId()));
+            }
+        } finally {
+            DB.use().setIdGenerator(IdGenerator.SNOWFLAKE);
+        }
+    }
+
+    @Test
+    public void waitPrefetchInTransaction() {
+        SegmentIdGenerator generator = new SegmentIdGenerator("WAIT", 3, 0.5);
+        DB.use().setIdGenerator(generator);
+        // 按允许多个写入者的数据库处理，事务中没有写入，后台线程可以取得号段
+        ReflectUtil.setFieldValue(generator, "singleWriter", false);
+        try {
+            Set<Long> ids = DB.use().tx(() -> {
+                Set<Long> set = new HashSet<>();
+                for (int i = 0; i < 20; i++) {
+                    assertTrue(set.add(generator.nextId()));
+                }
+                return set;
+            });
+            assertEquals(20, ids.size());
+        } finally {
+            DB.use().setIdGenerator(IdGenerator.SNOWFLAKE);
+        }
+    }
+}
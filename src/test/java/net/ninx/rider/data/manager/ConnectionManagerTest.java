@@ -0,0 +1,79 @@
+package net.ninx.rider.data.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.ninx.rider.data.DB;
+import net.ninx.rider.data.Student;
+import net.ninx.rider.data.Student.StudentMapper;
+import net.ninx.rider.data.TestDB;
+
+public class ConnectionManagerTest {
+
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        TestDB.init();
+        StudentMapper mapper = DB.use().mapper(StudentMapper.class);
+        for (int i = 0; i < 3; i++) {
+            Student student = new Student();
+            student.setName("cursor" + i);
+            mapper.create(student);
+        }
+        DB.use().releaseConnection();
+        pool = ConnectionPool.of(2);
+        DB.use().pool(pool);
+    }
+
+    @After
+    public void tearDown() {
+        DB.use().pool(null);
+        pool.close();
+    }
+
+    private static Stream<Student> stream() {
+        return DB.use().queryStream("select * from STUDENT", Student.class, new ArrayList<>());
+    }
+
+    @Test
+    public void closeStreamInOtherThread() throws Exception {
+        ConnectionManager manager = DB.use().getConnectionManager();
+        Stream<Student> stream = stream();
+        Iterator<Student> it = stream.iterator();
+        it.next();
+        assertEquals(1, pool.getActiveCount());
+
+        CompletableFuture.runAsync(stream::close).get();
+        assertEquals(0, manager.size());
+        assertEquals(0, pool.getActiveCount());
+
+        // 当前线程发现链接已经归还，重新获取
+        assertTrue(DB.use().query("select count(*) from STUDENT where NAME like 'cursor%'", Long.class, new ArrayList<>()) >= 3);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void reclaimDroppedStream() throws Exception {
+        ConnectionManager manager = DB.use().getConnectionManager();
+        stream().iterator().next();
+        assertEquals(1, pool.getActiveCount());
+
+        for (int i = 0; i < 10 && pool.getActiveCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(50);
+            manager.reap();
+        }
+        assertEquals(0, manager.size());
+        assertEquals(0, pool.getActiveCount());
+    }
+}
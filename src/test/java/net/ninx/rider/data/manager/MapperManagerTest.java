@@ -0,0 +1,39 @@
+package net.ninx.rider.data.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.ninx.rider.data.annotations.Sql;
+import net.ninx.rider.data.manager.MapperManager.MapperMethod;
+
+public class MapperManagerTest {
+
+    public static abstract class RowsMapper {
+        @Sql("select * from STUDENT")
+        public abstract List<Map<String, Object>> maps();
+
+        @SuppressWarnings("rawtypes")
+        @Sql("select * from STUDENT")
+        public abstract List raw();
+
+        @Sql("select NAME from STUDENT")
+        public abstract List<String> names();
+    }
+
+    private static MapperMethod plan(String name) throws NoSuchMethodException {
+        return MapperManager.getMapperMethod(RowsMapper.class.getMethod(name));
+    }
+
+    @Test
+    public void resolveListElementType() throws Exception {
+        assertTrue(plan("maps").isReturnList());
+        assertEquals(Map.class, plan("maps").getResultType());
+        assertEquals(Map.class, plan("raw").getResultType());
+        assertEquals(String.class, plan("names").getResultType());
+    }
+}
@@ -0,0 +1,62 @@
+package net.ninx.rider.data.manager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class QueryCacheManagerTest {
+
+    @Test
+    public void parseFromList() {
+        assertArrayEquals(new String[] { "A", "B" }, QueryCacheManager.parseReadTables("select * from a, b where a.ID = b.ID"));
+        assertArrayEquals(new String[] { "A", "B", "C" }, QueryCacheManager.parseReadTables("select * from `main`.a x, b as y join c on c.ID = x.ID"));
+        assertArrayEquals(new String[] { "A", "B" }, QueryCacheManager.parseReadTables("select * from (select ID from b) t, a where t.ID = a.ID"));
+        assertArrayEquals(new String[] { "A" }, QueryCacheManager.parseReadTables("select * from a where NAME = 'x from y, z'"));
+    }
+
+    @Test
+    public void notParsedTableFunction() {
+        assertNull(QueryCacheManager.parseReadTables("select * from generate_series(1, 10)"));
+    }
+
+    public static class NoAccessor {
+        private String name;
+        private int age;
+    }
+
+    public static class FinalField {
+        private final String name;
+
+        public FinalField() {
+            this.name = "x";
+        }
+    }
+
+    @Test
+    public void copyFieldsWithoutAccessors() {
+        NoAccessor value = new NoAccessor();
+        value.name = "a";
+        value.age = 3;
+        String[] tables = { "NO_ACCESSOR" };
+        QueryCacheManager.put("copyFieldsWithoutAccessors", Arrays.asList(value), tables, QueryCacheManager.stamp(tables), 60_000);
+
+        @SuppressWarnings("unchecked")
+        List<NoAccessor> cached = (List<NoAccessor>) QueryCacheManager.get("copyFieldsWithoutAccessors");
+        assertNotSame(value, cached.get(0));
+        assertEquals("a", cached.get(0).name);
+        assertEquals(3, cached.get(0).age);
+    }
+
+    @Test
+    public void skipValueNotCopyable() {
+        String[] tables = { "FINAL_FIELD" };
+        QueryCacheManager.put("skipValueNotCopyable", new FinalField(), tables, QueryCacheManager.stamp(tables), 60_000);
+        assertNull(QueryCacheManager.get("skipValueNotCopyable"));
+    }
+}
@@ -0,0 +1,89 @@
+package net.ninx.rider.data.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.ninx.rider.data.TestDB;
+import net.ninx.rider.data.manager.MapperManager;
+
+public class MapperProcessorTest {
+
+    private static final String MAPPER = "package demo;\n" //
+            + "import net.ninx.rider.data.annotations.*;\n" //
+            + "@Mapper\n" //
+            + "public abstract class DemoMapper {\n" //
+            + "    @Sql(value = \"update STUDENT set AGE = 1 where NAME = #{p0}\", type = Sql.SqlType.update)\n" //
+            + "    public abstract long touch(String name);\n" //
+            + "    @Sql(\"select max(AGE) from STUDENT where NAME = #{p0}\")\n" //
+            + "    public abstract int maxAge(String name);\n" //
+            + "    @Sql(\"select max(AGE) from STUDENT where NAME = #{p0}\")\n" //
+            + "    public abstract boolean hasAge(String name);\n" //
+            + "    @Sql(\"select NAME from STUDENT where NAME = #{p0}\")\n" //
+            + "    public abstract java.util.List<String> names(String name);\n" //
+            + "}\n";
+
+    private static URLClassLoader classLoader;
+
+    private static Object mapper;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        TestDB.init();
+
+        Path src = Files.createTempDirectory("rider-data-mapper-src");
+        Path out = Files.createTempDirectory("rider-data-mapper-out");
+        Path file = Files.write(src.resolve("DemoMapper.java"), MAPPER.getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int status = compiler.run(null, null, null, "-cp", System.getProperty("java.class.path"), "-processor", MapperProcessor.class.getName(), //
+                "-d", out.toString(), "-s", out.toString(), file.toString());
+        assertEquals(0, status);
+        assertTrue(new File(out.toFile(), "demo/DemoMapper" + MapperManager.IMPL_SUFFIX + ".java").exists());
+
+        classLoader = new URLClassLoader(new URL[] { out.toUri().toURL() }, MapperProcessorTest.class.getClassLoader());
+        mapper = classLoader.loadClass("demo.DemoMapper" + MapperManager.IMPL_SUFFIX).getDeclaredConstructor().newInstance();
+    }
+
+    @AfterClass
+    public static void close() throws Exception {
+        classLoader.close();
+    }
+
+    private static Object call(String name, Object... args) throws Exception {
+        Method method = mapper.getClass().getMethod(name, String.class);
+        return method.invoke(mapper, args);
+    }
+
+    @Test
+    public void unboxNumberOfOtherType() throws Exception {
+        // update 返回 Integer
+        assertEquals(0L, call("touch", "nobody"));
+    }
+
+    @Test
+    public void nullToZero() throws Exception {
+        assertEquals(0, call("maxAge", "nobody"));
+        assertFalse((Boolean) call("hasAge", "nobody"));
+    }
+
+    @Test
+    public void returnList() throws Exception {
+        assertEquals(Collections.emptyList(), call("names", "nobody"));
+    }
+}
@@ -0,0 +1,77 @@
+package net.ninx.rider.data.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassIndexTest {
+
+    private Path app;
+
+    private Path dependency;
+
+    @Before
+    public void setUp() throws IOException {
+        app = Files.createTempDirectory("rider-data-app");
+        dependency = Files.createTempDirectory("rider-data-dependency");
+
+        Path src = Files.createTempDirectory("rider-data-src");
+        Path main = Files.write(src.resolve("Main.java"), "package demo; public class Main {}".getBytes(StandardCharsets.UTF_8));
+        Path entity = Files.write(src.resolve("Entity.java"), "package demo; public class Entity {}".getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-d", app.toString(), main.toString(), entity.toString()));
+    }
+
+    private static void writeIndex(Path root, String... classes) throws IOException {
+        Path index = root.resolve(ClassIndex.LOCATION);
+        Files.createDirectories(index.getParent());
+        Files.write(index, String.join("\n", classes).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Set<Class<?>> read() throws Exception {
+        URL[] urls = { app.toUri().toURL(), dependency.toUri().toURL() };
+        try (URLClassLoader classLoader = new URLClassLoader(urls, null)) {
+            return ClassIndex.read(Class.forName("demo.Main", false, classLoader));
+        }
+    }
+
+    @Test
+    public void scanWhenOnlyDependencyHasIndex() throws Exception {
+        writeIndex(dependency, "com.other.Entity");
+        assertNull(read());
+    }
+
+    @Test
+    public void scanWhenIndexHasNoClassInPackage() throws Exception {
+        writeIndex(app, "com.other.Entity");
+        assertNull(read());
+    }
+
+    @Test
+    public void useIndexInSameRoot() throws Exception {
+        writeIndex(app, "demo.Entity");
+        writeIndex(dependency, "com.other.Entity");
+        Set<Class<?>> classes = read();
+        assertEquals(Collections.singleton("demo.Entity"), classes.stream().map(Class::getName).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void scanWithoutIndex() throws Exception {
+        assertNull(read());
+    }
+}
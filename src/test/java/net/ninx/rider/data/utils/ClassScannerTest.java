@@ -0,0 +1,19 @@
+package net.ninx.rider.data.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.ninx.rider.data.utils.scan.app.AppMapper;
+
+public class ClassScannerTest {
+
+    @Test
+    public void findSubclassOfAnnotatedClassOutsidePackage() throws Exception {
+        Set<Class<?>> classes = new ClassScanner().findAllClass(AppMapper.class);
+        assertEquals(Collections.singleton(AppMapper.class), classes);
+    }
+}
@@ -0,0 +1,7 @@
+package net.ninx.rider.data.utils.scan.app;
+
+import net.ninx.rider.data.utils.scan.lib.LibMapper;
+
+public abstract class AppMapper extends LibMapper {
+
+}
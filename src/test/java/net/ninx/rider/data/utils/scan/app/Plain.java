@@ -0,0 +1,5 @@
+package net.ninx.rider.data.utils.scan.app;
+
+public class Plain {
+
+}
@@ -0,0 +1,8 @@
+package net.ninx.rider.data.utils.scan.lib;
+
+import net.ninx.rider.data.annotations.Mapper;
+
+@Mapper
+public abstract class LibMapper {
+
+}